@@ -0,0 +1,50 @@
+import java.util.Objects;
+
+class Book {
+    private String title; // book title
+    private String author; // book author
+    private String isbn;
+    private int edition;
+
+    public Book(String title, String author, String isbn, int edition) {
+        this.title = title;
+        this.author = author;
+        this.isbn = isbn;
+        this.edition = edition;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public int getEdition() {
+        return edition;
+    }
+
+    // Two books are equal when all their attributes match. The getters are used
+    // so books that keep their fields elsewhere compare the same way.
+    public boolean equals(Object other) {
+        if (!(other instanceof Book)) {
+            return false;
+        }
+        Book book = (Book) other;
+        return Objects.equals(getTitle(), book.getTitle()) && Objects.equals(getAuthor(), book.getAuthor())
+                && Objects.equals(getIsbn(), book.getIsbn()) && getEdition() == book.getEdition();
+    }
+
+    public int hashCode() {
+        return Objects.hash(getTitle(), getAuthor(), getIsbn(), getEdition());
+    }
+
+    public String toString() {
+        return ("The book " + getTitle() + " written by " + getAuthor());
+    }
+}
@@ -0,0 +1,340 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Compact storage for the text of catalog records.
+// Titles and ISBNs are appended as UTF-8 to large byte slabs, on the heap or off
+// it, and every author name is stored once and shared by an ordinal. A record is
+// then a single long per id pointing into the slabs, and the Book handed out for
+// it is a flyweight that decodes its fields from there, so the heap holds no
+// Strings for the catalog at all.
+//
+// Record layout: author ordinal, edition, title length, title, isbn length, isbn,
+// the numbers as variable-length ints. Space of removed records is not reused;
+// saving a snapshot writes the live records only.
+//
+// Ids are reused once their record is removed, so every id also has a generation
+// that a removal bumps. A flyweight remembers the generation it was handed out
+// under and throws IllegalStateException once its record is gone, rather than
+// reading whichever record took the id over.
+class BookArena {
+    private static final int SLAB_SHIFT = 20;
+    private static final int SLAB_SIZE = 1 << SLAB_SHIFT;
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    private final boolean offHeap;
+    private ByteBuffer[] slabs = new ByteBuffer[4];
+    private int slabCount;
+    private long[][] recordAt = new long[1][]; // per id: slab << 32 | position, plus one; 0 when absent
+    private int[][] generations = new int[1][]; // per id: removals so far, paged like recordAt
+    private long[] authorAt = new long[16]; // per author ordinal, same encoding without the plus one
+    private int authorCount;
+    private final IdIndex authors = new IdIndex(16, this::authorName);
+    private long bytes; // bytes appended to the slabs
+    private long deadBytes; // bytes of removed records
+
+    public BookArena(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    // Checks if the slabs live outside the Java heap.
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    // Return the number of distinct authors stored.
+    public int authors() {
+        return authorCount;
+    }
+
+    // Return the bytes taken by the slabs and the offset tables.
+    public long footprint() {
+        long footprint = (long) slabCount * SLAB_SIZE + (long) authorAt.length * 8;
+        for (long[] page : recordAt) {
+            footprint += page == null ? 0 : (long) page.length * (8 + 4); // offsets and generations
+        }
+        return footprint;
+    }
+
+    // Return the share of the appended bytes that belong to removed records.
+    public double deadRatio() {
+        return bytes == 0 ? 0 : (double) deadBytes / bytes;
+    }
+
+    // Store the text of a book under an id.
+    public void put(int id, Book book) {
+        byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+        byte[] isbn = book.getIsbn().getBytes(StandardCharsets.UTF_8);
+        int author = authorOrdinal(book.getAuthor());
+
+        long at = reserve(5 + 5 + 5 + title.length + 5 + isbn.length);
+        ByteBuffer slab = slabs[(int) (at >>> 32)];
+        int position = (int) at;
+        int start = position;
+        position = putVarint(slab, position, author);
+        position = putVarint(slab, position, book.getEdition());
+        position = putVarint(slab, position, title.length);
+        slab.put(position, title);
+        position += title.length;
+        position = putVarint(slab, position, isbn.length);
+        slab.put(position, isbn);
+        position += isbn.length;
+        slab.position(position);
+        bytes += position - start;
+
+        int page = id >>> PAGE_SHIFT;
+        if (page >= recordAt.length) {
+            recordAt = Arrays.copyOf(recordAt, Math.max(page + 1, recordAt.length * 2));
+            generations = Arrays.copyOf(generations, recordAt.length);
+        }
+        if (recordAt[page] == null) {
+            recordAt[page] = new long[PAGE_SIZE];
+            generations[page] = new int[PAGE_SIZE];
+        }
+        recordAt[page][id & (PAGE_SIZE - 1)] = at + 1;
+    }
+
+    // Forget the record of an id.
+    public void remove(int id) {
+        long at = location(id);
+        if (at < 0) {
+            return;
+        }
+        ByteBuffer slab = slabs[(int) (at >>> 32)];
+        int start = (int) at;
+        int position = skipVarint(slab, skipVarint(slab, start));
+        int titleLength = getVarint(slab, position);
+        position = skipVarint(slab, position) + titleLength;
+        int isbnLength = getVarint(slab, position);
+        deadBytes += skipVarint(slab, position) + isbnLength - start;
+        recordAt[id >>> PAGE_SHIFT][id & (PAGE_SIZE - 1)] = 0;
+        generations[id >>> PAGE_SHIFT][id & (PAGE_SIZE - 1)]++;
+    }
+
+    // Checks if an id has a record.
+    public boolean contains(int id) {
+        return location(id) >= 0;
+    }
+
+    // Return a flyweight book over the record of an id, or null. The book stops
+    // reading, and throws, once the record is removed.
+    public Book book(int id) {
+        return contains(id) ? new ArenaBook(this, id, generations[id >>> PAGE_SHIFT][id & (PAGE_SIZE - 1)]) : null;
+    }
+
+    // Checks if the record of an id holds exactly the fields of the book,
+    // without decoding any of them into a String.
+    public boolean matches(int id, Book book) {
+        long at = location(id);
+        if (at < 0) {
+            return false;
+        }
+        ByteBuffer slab = slabs[(int) (at >>> 32)];
+        int position = (int) at;
+        int author = getVarint(slab, position);
+        position = skipVarint(slab, position);
+        if (getVarint(slab, position) != book.getEdition()) {
+            return false;
+        }
+        position = skipVarint(slab, position);
+
+        int titleLength = getVarint(slab, position);
+        position = skipVarint(slab, position);
+        if (!textEquals(slab, position, titleLength, book.getTitle())) {
+            return false;
+        }
+        position += titleLength;
+
+        int isbnLength = getVarint(slab, position);
+        if (!textEquals(slab, skipVarint(slab, position), isbnLength, book.getIsbn())) {
+            return false;
+        }
+        long name = authorAt[author];
+        slab = slabs[(int) (name >>> 32)];
+        position = (int) name;
+        return textEquals(slab, skipVarint(slab, position), getVarint(slab, position), book.getAuthor());
+    }
+
+    // Return the title of the record of an id, as of the given generation.
+    String titleOf(int id, int generation) {
+        long at = location(id, generation);
+        ByteBuffer slab = slabs[(int) (at >>> 32)];
+        int position = skipVarint(slab, skipVarint(slab, (int) at));
+        return text(slab, skipVarint(slab, position), getVarint(slab, position));
+    }
+
+    // Return the author of the record of an id, as of the given generation.
+    String authorOf(int id, int generation) {
+        long at = location(id, generation);
+        return authorName(getVarint(slabs[(int) (at >>> 32)], (int) at));
+    }
+
+    // Return the ISBN of the record of an id, as of the given generation.
+    String isbnOf(int id, int generation) {
+        long at = location(id, generation);
+        ByteBuffer slab = slabs[(int) (at >>> 32)];
+        int position = skipVarint(slab, skipVarint(slab, (int) at));
+        int titleLength = getVarint(slab, position);
+        position = skipVarint(slab, position) + titleLength;
+        return text(slab, skipVarint(slab, position), getVarint(slab, position));
+    }
+
+    // Return the edition of the record of an id, as of the given generation.
+    int editionOf(int id, int generation) {
+        long at = location(id, generation);
+        ByteBuffer slab = slabs[(int) (at >>> 32)];
+        return getVarint(slab, skipVarint(slab, (int) at));
+    }
+
+    // Return the ordinal of an author, storing the name the first time it is seen.
+    private int authorOrdinal(String name) {
+        int ordinal = authors.find(name);
+        if (ordinal >= 0) {
+            return ordinal;
+        }
+
+        byte[] text = name.getBytes(StandardCharsets.UTF_8);
+        long at = reserve(5 + text.length);
+        ByteBuffer slab = slabs[(int) (at >>> 32)];
+        int position = putVarint(slab, (int) at, text.length);
+        slab.put(position, text);
+        slab.position(position + text.length);
+        bytes += position + text.length - (int) at;
+
+        if (authorCount == authorAt.length) {
+            authorAt = Arrays.copyOf(authorAt, authorAt.length * 2);
+        }
+        ordinal = authorCount++;
+        authorAt[ordinal] = at;
+        authors.add(ordinal, name.hashCode());
+        return ordinal;
+    }
+
+    private String authorName(int ordinal) {
+        long at = authorAt[ordinal];
+        ByteBuffer slab = slabs[(int) (at >>> 32)];
+        int position = (int) at;
+        return text(slab, skipVarint(slab, position), getVarint(slab, position));
+    }
+
+    // Return where the record of an id starts, or -1.
+    private long location(int id) {
+        int page = id >>> PAGE_SHIFT;
+        if (page >= recordAt.length || recordAt[page] == null) {
+            return -1;
+        }
+        return recordAt[page][id & (PAGE_SIZE - 1)] - 1;
+    }
+
+    // Return where the record of an id starts, failing when the record a flyweight
+    // was handed out for has been removed since.
+    private long location(int id, int generation) {
+        long at = location(id);
+        if (at < 0 || generations[id >>> PAGE_SHIFT][id & (PAGE_SIZE - 1)] != generation) {
+            throw new IllegalStateException("The book was removed from the catalog");
+        }
+        return at;
+    }
+
+    // Find room for an entry of at most the given size. A new slab is started
+    // when the current one cannot hold it, so entries never straddle two slabs.
+    private long reserve(int size) {
+        ByteBuffer slab = slabCount == 0 ? null : slabs[slabCount - 1];
+
+        if (slab == null || slab.remaining() < size) {
+            int capacity = Math.max(SLAB_SIZE, size);
+            slab = offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            if (slabCount == slabs.length) {
+                slabs = Arrays.copyOf(slabs, slabs.length * 2);
+            }
+            slabs[slabCount++] = slab;
+        }
+        return (long) (slabCount - 1) << 32 | slab.position();
+    }
+
+    private static int putVarint(ByteBuffer slab, int position, int value) {
+        while ((value & ~0x7f) != 0) {
+            slab.put(position++, (byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        slab.put(position++, (byte) value);
+        return position;
+    }
+
+    private static int getVarint(ByteBuffer slab, int position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = slab.get(position++);
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int skipVarint(ByteBuffer slab, int position) {
+        while (slab.get(position++) < 0) {
+        }
+        return position;
+    }
+
+    private static String text(ByteBuffer slab, int position, int length) {
+        byte[] text = new byte[length];
+        slab.get(position, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    // Compare stored UTF-8 with a String, char by char while the bytes are ASCII.
+    private static boolean textEquals(ByteBuffer slab, int position, int length, String value) {
+        if (length == value.length()) {
+            int i = 0;
+            for (; i < length; i++) {
+                byte b = slab.get(position + i);
+                if (b < 0) {
+                    break;
+                }
+                if (b != value.charAt(i)) {
+                    return false;
+                }
+            }
+            if (i == length) {
+                return true;
+            }
+        } else if (length < value.length()) {
+            return false; // UTF-8 never takes fewer bytes than chars
+        }
+        return text(slab, position, length).equals(value);
+    }
+
+    // Book that reads its fields from the arena instead of holding them.
+    private static class ArenaBook extends Book {
+        private final BookArena arena;
+        private final int id;
+        private final int generation;
+
+        ArenaBook(BookArena arena, int id, int generation) {
+            super(null, null, null, 0);
+            this.arena = arena;
+            this.id = id;
+            this.generation = generation;
+        }
+
+        public String getTitle() {
+            return arena.titleOf(id, generation);
+        }
+
+        public String getAuthor() {
+            return arena.authorOf(id, generation);
+        }
+
+        public String getIsbn() {
+            return arena.isbnOf(id, generation);
+        }
+
+        public int getEdition() {
+            return arena.editionOf(id, generation);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import java.util.List;
+
+// One page of a catalog listing, with the cursor token to ask for the next one.
+class BookPage {
+    public static final long END = -1;
+
+    private final List<Book> books;
+    private final long nextCursor;
+
+    public BookPage(List<Book> books, long nextCursor) {
+        this.books = books;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    // Return the cursor of the next page, or END after the last one.
+    public long getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != END;
+    }
+}
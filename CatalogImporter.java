@@ -0,0 +1,424 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Streaming loader for delimited catalog files.
+// Every line holds one book: title, author, isbn and an optional edition, split
+// by the delimiter. A field may be wrapped in double quotes to hold the delimiter,
+// with "" standing for a quote inside it. Blank lines and lines starting with #
+// are skipped, and lines that are not a book are counted as rejected.
+//
+// The file is cut into line-aligned chunks that worker threads map and parse on
+// their own, straight from the mapped bytes into the fields of each Book, so no
+// line String or split array is made. Parsed books travel in batches drawn from
+// a fixed pool, which keeps the heap used by an import to a few batches per
+// worker however large the file is.
+class CatalogImporter {
+    private static final int DEFAULT_BATCH_SIZE = 4096;
+    private static final int CHUNK_BYTES = 32 << 20;
+    private static final int MIN_CHUNK_BYTES = 1 << 20;
+    private static final int SAMPLE_BYTES = 64 << 10;
+    private static final int FIELDS = 4; // title, author, isbn, edition
+    private static final Batch END = new Batch(0); // a worker puts this on the queue when its chunks are done
+
+    private final byte delimiter;
+    private final int batchSize;
+    private final int threads;
+    private final LongAdder rejected = new LongAdder();
+
+    public CatalogImporter() {
+        this(',', DEFAULT_BATCH_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    public CatalogImporter(char delimiter, int batchSize, int threads) {
+        if (delimiter > 0x7f || delimiter == '"' || delimiter == '\n' || delimiter == '\r') {
+            throw new IllegalArgumentException("Delimiter must be a plain ASCII character: " + delimiter);
+        }
+        this.delimiter = (byte) delimiter;
+        this.batchSize = Math.max(1, batchSize);
+        this.threads = Math.max(1, threads);
+    }
+
+    // Return how many lines the imports so far could not read as a book.
+    public long rejectedLines() {
+        return rejected.sum();
+    }
+
+    // Load a file into a library. Workers parse in parallel while the calling
+    // thread adds the batches, since a LibrarySystem takes one writer at a time.
+    // Without a record count hint (0) the count is estimated from the file.
+    public long importInto(Path file, LibrarySystem library, int expectedBooks) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            library.ensureCapacity(expectedBooks > 0 ? expectedBooks : estimateRecords(channel));
+            long[] chunks = chunkBounds(channel);
+            int workers = Math.min(threads, chunks.length - 1);
+            if (workers == 0) {
+                return 0;
+            }
+
+            // Batches go round between the workers and this thread, so their number caps the heap in use.
+            BlockingQueue<Batch> free = new ArrayBlockingQueue<>(workers * 3);
+            BlockingQueue<Batch> parsed = new ArrayBlockingQueue<>(workers * 4);
+            for (int b = 0; b < workers * 3; b++) {
+                free.add(new Batch(batchSize));
+            }
+
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            ExecutorService pool = startWorkers(channel, chunks, workers, failure, batch -> {
+                try {
+                    Batch full = free.take();
+                    full.swap(batch);
+                    parsed.put(full);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Import interrupted", e);
+                }
+            }, () -> parsed.add(END));
+
+            long added = 0;
+            try {
+                for (int finished = 0; finished < workers;) {
+                    Batch batch = parsed.take();
+                    if (batch == END) {
+                        finished++;
+                        continue;
+                    }
+                    for (int b = 0; b < batch.count; b++) {
+                        if (library.addABook(batch.books[b])) {
+                            added++;
+                        }
+                    }
+                    batch.clear();
+                    free.put(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Import interrupted", e);
+            } finally {
+                pool.shutdownNow();
+            }
+            rethrow(failure.get());
+            return added;
+        }
+    }
+
+    // Load a file into a concurrent library. Every worker adds its own batches,
+    // which only contend when they land on the same segment.
+    public long importInto(Path file, ConcurrentLibrarySystem library, int expectedBooks) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            library.ensureCapacity(expectedBooks > 0 ? expectedBooks : estimateRecords(channel));
+            long[] chunks = chunkBounds(channel);
+            int workers = Math.min(threads, chunks.length - 1);
+            if (workers == 0) {
+                return 0;
+            }
+
+            LongAdder added = new LongAdder();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            ExecutorService pool = startWorkers(channel, chunks, workers, failure, batch -> {
+                added.add(library.addBooks(batch.books, batch.count));
+                batch.clear();
+            }, () -> {
+            });
+
+            try {
+                pool.shutdown();
+                while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                }
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new IOException("Import interrupted", e);
+            }
+            rethrow(failure.get());
+            return added.sum();
+        }
+    }
+
+    // Guess the number of lines in a file from the line length of its first bytes.
+    public static int estimateRecords(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return estimateRecords(channel);
+        }
+    }
+
+    private static int estimateRecords(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer sample = ByteBuffer.allocate((int) Math.min(size, SAMPLE_BYTES));
+        while (sample.hasRemaining() && channel.read(sample, sample.position()) > 0) {
+        }
+
+        int lines = 0;
+        for (int i = 0; i < sample.position(); i++) {
+            if (sample.get(i) == '\n') {
+                lines++;
+            }
+        }
+        if (lines == 0) {
+            return 1;
+        }
+        return (int) Math.min(Integer.MAX_VALUE / 2, size * lines / sample.position() + 1);
+    }
+
+    // Start the workers. They take chunks in turn, pass every full batch to the
+    // sink, and call done once when they run out of chunks.
+    private ExecutorService startWorkers(FileChannel channel, long[] chunks, int workers,
+            AtomicReference<Throwable> failure, Consumer<Batch> sink, Runnable done) {
+        ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "catalog-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int[] nextChunk = new int[1];
+
+        for (int w = 0; w < workers; w++) {
+            pool.execute(() -> {
+                Batch batch = new Batch(batchSize);
+                try {
+                    LineParser parser = new LineParser();
+                    int chunk;
+                    while (failure.get() == null && (chunk = take(nextChunk, chunks.length - 1)) >= 0) {
+                        parser.parse(channel.map(FileChannel.MapMode.READ_ONLY, chunks[chunk],
+                                chunks[chunk + 1] - chunks[chunk]), batch, sink);
+                    }
+                    if (batch.count > 0) {
+                        sink.accept(batch);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.run();
+                }
+            });
+        }
+        return pool;
+    }
+
+    private static int take(int[] nextChunk, int chunkCount) {
+        synchronized (nextChunk) {
+            return nextChunk[0] < chunkCount ? nextChunk[0]++ : -1;
+        }
+    }
+
+    // Cut the file into chunks that start at the beginning of a line. Returns the
+    // chunk offsets followed by the file size.
+    private long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.min(CHUNK_BYTES, Math.max(MIN_CHUNK_BYTES, size / threads + 1));
+        List<Long> bounds = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        long position = 0;
+
+        while (position < size) {
+            bounds.add(position);
+            position = nextLineStart(channel, position + chunkSize, size, probe);
+        }
+        bounds.add(size);
+
+        long[] chunks = new long[bounds.size()];
+        for (int c = 0; c < chunks.length; c++) {
+            chunks[c] = bounds.get(c);
+        }
+        return chunks;
+    }
+
+    // Return the offset of the first line starting at or after the position.
+    private static long nextLineStart(FileChannel channel, long position, long size, ByteBuffer probe)
+            throws IOException {
+        position--; // the byte before the position may end the previous line
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static void rethrow(Throwable failure) throws IOException {
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) failure).getCause();
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new IOException(failure);
+    }
+
+    // A run of parsed books handed to the library in one go.
+    private static class Batch {
+        private Book[] books;
+        private int count;
+
+        Batch(int size) {
+            this.books = new Book[size];
+        }
+
+        // Trade contents with another batch.
+        void swap(Batch other) {
+            Book[] books = this.books;
+            int count = this.count;
+            this.books = other.books;
+            this.count = other.count;
+            other.books = books;
+            other.count = count;
+        }
+
+        void clear() {
+            Arrays.fill(books, 0, count, null);
+            count = 0;
+        }
+    }
+
+    // Parses the lines of one mapped chunk. Each line is copied once into a
+    // reusable byte array, split in place, and its fields decoded into Strings.
+    private class LineParser {
+        private byte[] line = new byte[256];
+        private final int[] fieldStart = new int[FIELDS];
+        private final int[] fieldEnd = new int[FIELDS];
+
+        void parse(MappedByteBuffer data, Batch batch, Consumer<Batch> sink) {
+            int limit = data.limit();
+            int position = 0;
+
+            while (position < limit) {
+                int end = position;
+                while (end < limit && data.get(end) != '\n') {
+                    end++;
+                }
+                int length = end - position;
+                if (length > 0 && data.get(end - 1) == '\r') {
+                    length--;
+                }
+
+                if (length > 0 && data.get(position) != '#') {
+                    if (line.length < length) {
+                        line = new byte[Math.max(length, line.length * 2)];
+                    }
+                    data.get(position, line, 0, length);
+
+                    Book book = book(length);
+                    if (book == null) {
+                        rejected.increment();
+                    } else {
+                        batch.books[batch.count++] = book;
+                        if (batch.count == batch.books.length) {
+                            sink.accept(batch);
+                        }
+                    }
+                }
+                position = end + 1;
+            }
+        }
+
+        // Read the book on the current line, or null when the line is not one.
+        private Book book(int length) {
+            int fields = split(length);
+            if (fields < 3 || fields > FIELDS || fieldEnd[2] == fieldStart[2]) {
+                return null;
+            }
+
+            int edition = 0;
+            if (fields == FIELDS) {
+                if (fieldEnd[3] - fieldStart[3] > 9) {
+                    return null;
+                }
+                for (int i = fieldStart[3]; i < fieldEnd[3]; i++) {
+                    int digit = line[i] - '0';
+                    if (digit < 0 || digit > 9) {
+                        return null;
+                    }
+                    edition = edition * 10 + digit;
+                }
+            }
+            return new Book(text(0), text(1), text(2), edition);
+        }
+
+        // Find the fields of the line, unquoting quoted fields in place.
+        // Returns the number of fields, or FIELDS + 1 when there are too many.
+        private int split(int length) {
+            int field = 0;
+            int position = 0;
+
+            while (true) {
+                if (field == FIELDS) {
+                    return FIELDS + 1;
+                }
+                int start = position;
+                int end;
+
+                if (position < length && line[position] == '"') {
+                    // Copy the unquoted text over itself, it only gets shorter.
+                    int read = position + 1;
+                    end = position;
+                    while (read < length) {
+                        if (line[read] == '"') {
+                            if (read + 1 < length && line[read + 1] == '"') {
+                                line[end++] = '"';
+                                read += 2;
+                                continue;
+                            }
+                            read++;
+                            break;
+                        }
+                        line[end++] = line[read++];
+                    }
+                    position = read;
+                    while (position < length && line[position] != delimiter) {
+                        position++;
+                    }
+                } else {
+                    while (position < length && line[position] != delimiter) {
+                        position++;
+                    }
+                    end = position;
+                }
+
+                fieldStart[field] = start;
+                fieldEnd[field] = end;
+                field++;
+
+                if (position >= length) {
+                    return field;
+                }
+                position++; // skip the delimiter
+            }
+        }
+
+        private String text(int field) {
+            return new String(line, fieldStart[field], fieldEnd[field] - fieldStart[field], StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters and gauges of a catalog, for monitoring it under load.
+// Lookups count their hits and misses in LongAdders, which spread concurrent
+// updates over cells instead of contending on one value, so counting costs a
+// lookup next to nothing. The gauges are not kept up to date at all: they are
+// read from the catalog's tables when someone asks. The metrics can be
+// registered as an MXBean and pushed to a Reporter at a fixed rate.
+class CatalogMetrics implements CatalogMetricsMXBean {
+    private final Source source;
+    private final LongAdder titleHits = new LongAdder();
+    private final LongAdder titleMisses = new LongAdder();
+    private final LongAdder authorHits = new LongAdder();
+    private final LongAdder authorMisses = new LongAdder();
+    private final LongAdder isbnHits = new LongAdder();
+    private final LongAdder isbnMisses = new LongAdder();
+
+    public CatalogMetrics(Source source) {
+        this.source = source;
+    }
+
+    // The catalog the gauges are read from.
+    interface Source {
+        long[] probeHistogram();
+
+        double loadFactor();
+
+        double tombstoneRatio();
+
+        int resizes();
+
+        int compactions();
+
+        long rebuildNanos();
+
+        int loans();
+
+        int loanCapacity();
+
+        double cacheHitRate();
+    }
+
+    // Receives the metrics once every reporting period, on the reporter thread.
+    interface Reporter {
+        void report(CatalogMetrics metrics);
+    }
+
+    // A reporter printing one summary line per period.
+    public static Reporter printingTo(PrintStream out) {
+        return metrics -> out.println(metrics);
+    }
+
+    // Count a lookup by title.
+    public void countTitleLookup(boolean hit) {
+        (hit ? titleHits : titleMisses).increment();
+    }
+
+    // Count a lookup by author.
+    public void countAuthorLookup(boolean hit) {
+        (hit ? authorHits : authorMisses).increment();
+    }
+
+    // Count a lookup by ISBN.
+    public void countIsbnLookup(boolean hit) {
+        (hit ? isbnHits : isbnMisses).increment();
+    }
+
+    public long getTitleHits() {
+        return titleHits.sum();
+    }
+
+    public long getTitleMisses() {
+        return titleMisses.sum();
+    }
+
+    public long getAuthorHits() {
+        return authorHits.sum();
+    }
+
+    public long getAuthorMisses() {
+        return authorMisses.sum();
+    }
+
+    public long getIsbnHits() {
+        return isbnHits.sum();
+    }
+
+    public long getIsbnMisses() {
+        return isbnMisses.sum();
+    }
+
+    public double getHitRatio() {
+        long hits = getTitleHits() + getAuthorHits() + getIsbnHits();
+        long lookups = hits + getTitleMisses() + getAuthorMisses() + getIsbnMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public long[] getProbeHistogram() {
+        return source.probeHistogram();
+    }
+
+    public double getLoadFactor() {
+        return source.loadFactor();
+    }
+
+    public double getTombstoneRatio() {
+        return source.tombstoneRatio();
+    }
+
+    public int getResizes() {
+        return source.resizes();
+    }
+
+    public int getCompactions() {
+        return source.compactions();
+    }
+
+    public long getRebuildMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(source.rebuildNanos());
+    }
+
+    public int getLoans() {
+        return source.loans();
+    }
+
+    public int getLoanCapacity() {
+        return source.loanCapacity();
+    }
+
+    public double getCacheHitRate() {
+        return source.cacheHitRate();
+    }
+
+    // Return the mean number of probes per index operation.
+    public double meanProbes() {
+        long[] histogram = getProbeHistogram();
+        long operations = 0;
+        long probes = 0;
+        for (int b = 0; b < histogram.length; b++) {
+            operations += histogram[b];
+            probes += histogram[b] * b;
+        }
+        return operations == 0 ? 0 : (double) probes / operations;
+    }
+
+    // Register the metrics with the platform MBean server under the given name.
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("library:type=CatalogMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    // Hand the metrics to the reporter every period until the returned handle is closed.
+    // A reporter that throws is not called again.
+    public Closeable startReporting(Reporter reporter, long period, TimeUnit unit) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> reporter.report(this), period, period, unit);
+        return scheduler::shutdown;
+    }
+
+    public String toString() {
+        return String.format("lookups: title %d/%d, author %d/%d, isbn %d/%d hit/miss; "
+                + "mean probes %.2f, load factor %.2f, tombstones %.2f, resizes %d, compactions %d, "
+                + "rebuilding %d ms; loans %d of %d; cache hit rate %.2f",
+                getTitleHits(), getTitleMisses(), getAuthorHits(), getAuthorMisses(), getIsbnHits(), getIsbnMisses(),
+                meanProbes(), getLoadFactor(), getTombstoneRatio(), getResizes(), getCompactions(),
+                getRebuildMillis(), getLoans(), getLoanCapacity(), getCacheHitRate());
+    }
+}
@@ -0,0 +1,39 @@
+// Management interface of CatalogMetrics, as seen through JMX.
+// It is public because JMX only introspects public MXBean interfaces.
+public interface CatalogMetricsMXBean {
+    long getTitleHits();
+
+    long getTitleMisses();
+
+    long getAuthorHits();
+
+    long getAuthorMisses();
+
+    long getIsbnHits();
+
+    long getIsbnMisses();
+
+    // Share of lookups of any kind that found a book.
+    double getHitRatio();
+
+    // Probes per index operation, bucketed by probe count, the last bucket holding the overflow.
+    long[] getProbeHistogram();
+
+    double getLoadFactor();
+
+    double getTombstoneRatio();
+
+    int getResizes();
+
+    int getCompactions();
+
+    long getRebuildMillis();
+
+    // Loans waiting in the ledger, and how many it can hold.
+    int getLoans();
+
+    int getLoanCapacity();
+
+    // Share of lookups answered by the lookup cache, 0 when there is none.
+    double getCacheHitRate();
+}
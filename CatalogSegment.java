@@ -0,0 +1,52 @@
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+// One LibrarySystem guarded by a StampedLock.
+// Reads first run optimistically without taking the lock and are only redone
+// under the read lock when a writer got in between. A torn optimistic read may
+// also throw, in which case it is redone the same way.
+class CatalogSegment {
+    private final LibrarySystem library;
+    private final StampedLock lock = new StampedLock();
+
+    public CatalogSegment(LibrarySystem library) {
+        this.library = library;
+    }
+
+    // Run a query that only reads the library.
+    public <T> T read(Function<LibrarySystem, T> query) {
+        long stamp = lock.tryOptimisticRead();
+
+        if (stamp != 0) {
+            try {
+                T result = query.apply(library);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException torn) {
+                // A writer changed the tables under us, the read-locked retry below settles it.
+            }
+        }
+        return readLocked(query);
+    }
+
+    // Run a query under the read lock, for queries that allocate by the size of the library.
+    public <T> T readLocked(Function<LibrarySystem, T> query) {
+        long stamp = lock.readLock();
+        try {
+            return query.apply(library);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Run an update under the write lock.
+    public <T> T write(Function<LibrarySystem, T> update) {
+        long stamp = lock.writeLock();
+        try {
+            return update.apply(library);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
@@ -0,0 +1,492 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+// Thread-safe library catalog for several checkout terminals.
+// Books are striped over segments by ISBN, each a LibrarySystem behind its own
+// StampedLock, so writers to different segments never wait for each other and
+// searches read without locking at all. Title and author searches look at
+// every segment, ISBN searches at one.
+class ConcurrentLibrarySystem implements CatalogMetrics.Source, LoanReminders.Source {
+    private static final int DEFAULT_SEGMENTS = 16;
+
+    private final CatalogSegment[] segments;
+    private final LongAdder booksInTheLibrary = new LongAdder();
+    private final LongAdder booksBorrowed = new LongAdder();
+    private final CatalogMetrics metrics = new CatalogMetrics(this);
+    private volatile LookupCache lookupCache; // optional front cache of the searches of all segments
+    private final Function<String, Book> titleLookup = this::findBookByTitle;
+    private final Function<String, Book> authorLookup = this::findBookByAuthor;
+    private final Function<String, Book> isbnLookup = this::findBookByIsbn;
+
+    public ConcurrentLibrarySystem() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    public ConcurrentLibrarySystem(int segmentCount) {
+        // A power of two, so a segment is picked with a mask.
+        int count = 1;
+        while (count < segmentCount) {
+            count <<= 1;
+        }
+
+        this.segments = new CatalogSegment[count];
+        for (int s = 0; s < count; s++) {
+            segments[s] = new CatalogSegment(new LibrarySystem());
+        }
+    }
+
+    // Return the number of segments.
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    // Return the number of elements in the table.
+    public int booksInTheLibrary() {
+        return booksInTheLibrary.intValue();
+    }
+
+    // Return the number of borrowed books
+    public int booksBorrowed() {
+        return booksBorrowed.intValue();
+    }
+
+    // Checks if the table is empty.
+    public boolean isLibraryEmpty() {
+        return booksInTheLibrary.sum() == 0;
+    }
+
+    // Add a book to the segment of its ISBN.
+    public boolean addABook(Book book) {
+        boolean added = segmentOf(book.getIsbn()).write(library -> library.addABook(book));
+
+        if (added) {
+            booksInTheLibrary.increment();
+            invalidate(book);
+        }
+        return added;
+    }
+
+    // Add a batch of books, taking the lock of each segment once for all of its books.
+    public int addBooks(Book[] books, int count) {
+        // Bucket the batch by segment first.
+        int[] starts = new int[segments.length + 1];
+        int[] segmentOfBook = new int[count];
+        for (int b = 0; b < count; b++) {
+            segmentOfBook[b] = segmentIndex(books[b].getIsbn());
+            starts[segmentOfBook[b] + 1]++;
+        }
+        for (int s = 0; s < segments.length; s++) {
+            starts[s + 1] += starts[s];
+        }
+        Book[] bucketed = new Book[count];
+        int[] fill = Arrays.copyOf(starts, segments.length);
+        for (int b = 0; b < count; b++) {
+            bucketed[fill[segmentOfBook[b]]++] = books[b];
+        }
+
+        int added = 0;
+        for (int s = 0; s < segments.length; s++) {
+            int from = starts[s];
+            int to = starts[s + 1];
+            if (from == to) {
+                continue;
+            }
+            added += segments[s].write(library -> {
+                int inSegment = 0;
+                for (int b = from; b < to; b++) {
+                    if (library.addABook(bucketed[b])) {
+                        inSegment++;
+                    }
+                }
+                return inSegment;
+            });
+            for (int b = from; b < to; b++) {
+                invalidate(bucketed[b]);
+            }
+        }
+        booksInTheLibrary.add(added);
+        return added;
+    }
+
+    // Make room for the given number of distinct books, spread over the segments.
+    public void ensureCapacity(int books) {
+        int perSegment = books / segments.length + books / (segments.length * 8) + 1;
+        for (CatalogSegment segment : segments) {
+            segment.write(library -> {
+                library.ensureCapacity(perSegment);
+                return null;
+            });
+        }
+    }
+
+    // Withdraw one shelved copy of a book from the segment of its ISBN.
+    public boolean removeABook(Book book) {
+        boolean removed = segmentOf(book.getIsbn()).write(library -> library.removeABook(book));
+
+        if (removed) {
+            booksInTheLibrary.decrement();
+            invalidate(book);
+        }
+        return removed;
+    }
+
+    // Return how many copies of a book are on the shelf.
+    public int availableCopies(Book book) {
+        return segmentOf(book.getIsbn()).read(library -> library.availableCopies(book));
+    }
+
+    // Borrow a book from the segment of its ISBN.
+    public boolean BorrowABook(Book book) {
+        return BorrowABook(book, LibrarySystem.NO_PATRON);
+    }
+
+    // Lend a book to a patron from the segment of its ISBN.
+    public boolean BorrowABook(Book book, int patron) {
+        boolean borrowed = segmentOf(book.getIsbn()).write(library -> library.BorrowABook(book, patron));
+
+        if (borrowed) {
+            booksInTheLibrary.decrement();
+            booksBorrowed.increment();
+        }
+        return borrowed;
+    }
+
+    // Take a borrowed book back into the segment of its ISBN.
+    public boolean returnABook(Book book) {
+        boolean returned = segmentOf(book.getIsbn()).write(library -> library.returnABook(book));
+
+        if (returned) {
+            booksBorrowed.decrement();
+            booksInTheLibrary.increment();
+        }
+        return returned;
+    }
+
+    // Return the books a patron has on loan, segment by segment.
+    public List<Book> booksBorrowedBy(int patron) {
+        List<Book> books = new ArrayList<>();
+        for (CatalogSegment segment : segments) {
+            books.addAll(segment.readLocked(library -> library.booksBorrowedBy(patron)));
+        }
+        return books;
+    }
+
+    // Return the borrowed books due before the given time, segment by segment.
+    // The ledgers only visit the loans found, so the segments are read optimistically.
+    public List<Book> booksDueBefore(long time) {
+        List<Book> books = new ArrayList<>();
+        for (CatalogSegment segment : segments) {
+            books.addAll(segment.read(library -> library.booksDueBefore(time)));
+        }
+        return books;
+    }
+
+    // Take the loans due before the time that no reminder was taken for yet,
+    // segment by segment, each write-locked only while its new loans are taken out.
+    public List<LoanReminders.Loan> takeLoansDueBefore(long time) {
+        List<LoanReminders.Loan> due = new ArrayList<>();
+        for (CatalogSegment segment : segments) {
+            due.addAll(segment.write(library -> library.takeLoansDueBefore(time)));
+        }
+        return due;
+    }
+
+    // Search the book using its isbn.
+    public Book searchBookByIsbn(String isbn) {
+        LookupCache cache = lookupCache;
+        Book book = cache == null ? findBookByIsbn(isbn) : cache.isbn(isbn, isbnLookup);
+        metrics.countIsbnLookup(book != null);
+        return book;
+    }
+
+    // Search the book using its title.
+    public Book searchBookByTitle(String title) {
+        LookupCache cache = lookupCache;
+        Book book = cache == null ? findBookByTitle(title) : cache.title(title, titleLookup);
+        metrics.countTitleLookup(book != null);
+        return book;
+    }
+
+    // Search the book using its authors.
+    public Book searchBookByAuthor(String author) {
+        LookupCache cache = lookupCache;
+        Book book = cache == null ? findBookByAuthor(author) : cache.author(author, authorLookup);
+        metrics.countAuthorLookup(book != null);
+        return book;
+    }
+
+    private Book findBookByIsbn(String isbn) {
+        return segmentOf(isbn).read(library -> library.findBookByIsbn(isbn));
+    }
+
+    private Book findBookByTitle(String title) {
+        for (CatalogSegment segment : segments) {
+            Book book = segment.read(library -> library.findBookByTitle(title));
+            if (book != null) {
+                return book;
+            }
+        }
+        return null;
+    }
+
+    private Book findBookByAuthor(String author) {
+        for (CatalogSegment segment : segments) {
+            Book book = segment.read(library -> library.findBookByAuthor(author));
+            if (book != null) {
+                return book;
+            }
+        }
+        return null;
+    }
+
+    // List the books whose title starts with the prefix, in alphabetical order of title.
+    public List<Book> searchBooksByTitlePrefix(String prefix, int limit) {
+        List<Book> books = new ArrayList<>();
+        for (CatalogSegment segment : segments) {
+            books.addAll(indexedSearch(segment, LibrarySystem::hasTitleTrie,
+                    library -> library.searchBooksByTitlePrefix(prefix, limit)));
+        }
+        books.sort(Comparator.comparing(book -> TitleTrie.normalize(book.getTitle())));
+        return books.size() > limit ? new ArrayList<>(books.subList(0, limit)) : books;
+    }
+
+    // List the books whose title is at most maxEdits typos away from the given one, closest first.
+    public List<Book> searchBooksByTitleFuzzy(String title, int maxEdits, int limit) {
+        String key = TitleTrie.normalize(title);
+        List<Book> books = new ArrayList<>();
+        for (CatalogSegment segment : segments) {
+            books.addAll(indexedSearch(segment, LibrarySystem::hasTitleTrie,
+                    library -> library.searchBooksByTitleFuzzy(title, maxEdits, limit)));
+        }
+        Comparator<Book> byDistance = Comparator
+                .comparingInt(book -> TitleTrie.editDistance(key, TitleTrie.normalize(book.getTitle()), maxEdits));
+        books.sort(byDistance.thenComparing(book -> TitleTrie.normalize(book.getTitle())));
+        return books.size() > limit ? new ArrayList<>(books.subList(0, limit)) : books;
+    }
+
+    // List the books matching a keyword query, best first. Scores are weighed
+    // by the word frequencies of each segment, which agree closely on large catalogs.
+    public List<Book> searchBooksByKeywords(String query, int limit) {
+        List<TextIndex.Match> matches = new ArrayList<>();
+        for (CatalogSegment segment : segments) {
+            matches.addAll(indexedSearch(segment, LibrarySystem::hasKeywordIndex,
+                    library -> library.matchKeywords(query, limit)));
+        }
+        matches.sort(Comparator.comparingDouble((TextIndex.Match match) -> match.score).reversed());
+
+        List<Book> books = new ArrayList<>();
+        for (int m = 0; m < matches.size() && m < limit; m++) {
+            books.add(matches.get(m).book);
+        }
+        return books;
+    }
+
+    // Run a search on a segment through an index built on first use. The first
+    // search of a segment builds its index and so needs the write lock, later
+    // ones share the read lock.
+    private <T> T indexedSearch(CatalogSegment segment, Predicate<LibrarySystem> built,
+            Function<LibrarySystem, T> search) {
+        T result = segment.readLocked(library -> built.test(library) ? search.apply(library) : null);
+        return result != null ? result : segment.write(search);
+    }
+
+    // Return the number of books written by an author.
+    public int countBooksByAuthor(String author) {
+        int count = 0;
+        for (CatalogSegment segment : segments) {
+            count += segment.read(library -> library.countBooksByAuthor(author));
+        }
+        return count;
+    }
+
+    // Return one page of the books written by an author, pages start at 0.
+    // The order is by segment and then by id within a segment.
+    public List<Book> searchBooksByAuthor(String author, int page, int pageSize) {
+        List<Book> books = new ArrayList<>();
+        long skip = (long) page * pageSize;
+
+        for (CatalogSegment segment : segments) {
+            int inSegment = segment.read(library -> library.countBooksByAuthor(author));
+            if (skip >= inSegment) {
+                skip -= inSegment;
+                continue;
+            }
+            int from = (int) skip;
+            int wanted = pageSize - books.size();
+            books.addAll(segment.readLocked(library -> library.booksByAuthor(author)
+                    .skip(from).limit(wanted).collect(Collectors.toList())));
+            skip = 0;
+
+            if (books.size() == pageSize) {
+                break;
+            }
+        }
+        return books;
+    }
+
+    // Return up to pageSize books with a copy on the shelf, starting at the cursor
+    // of the previous page, or at 0 for the first one. The cursor holds the segment
+    // in its high half and the slab id within the segment in its low half.
+    public BookPage availableBooksPage(long cursor, int pageSize) {
+        List<Book> books = new ArrayList<>(pageSize);
+        int segment = (int) (cursor >>> 32);
+        long inSegment = cursor & 0xffffffffL;
+
+        while (segment < segments.length) {
+            long from = inSegment;
+            int wanted = pageSize - books.size();
+            BookPage page = segments[segment].readLocked(library -> library.availableBooksPage(from, wanted));
+            books.addAll(page.getBooks());
+
+            if (page.hasMore()) {
+                return new BookPage(books, ((long) segment << 32) | page.getNextCursor());
+            }
+            segment++;
+            inSegment = 0;
+
+            if (books.size() == pageSize) {
+                return new BookPage(books, segment < segments.length ? (long) segment << 32 : BookPage.END);
+            }
+        }
+        return new BookPage(books, BookPage.END);
+    }
+
+    // Return the lookup counters of the catalog and the table gauges of all its segments.
+    public CatalogMetrics metrics() {
+        return metrics;
+    }
+
+    // Put a cache in front of the title, author and ISBN searches, or take it away with null.
+    // Writers invalidate it once their segment lock is released, so a search never
+    // gets an answer older than the last write that finished before it began.
+    public void useLookupCache(LookupCache cache) {
+        this.lookupCache = cache;
+    }
+
+    // Return the share of lookups answered by the lookup cache, 0 without one.
+    public double cacheHitRate() {
+        LookupCache cache = lookupCache;
+        return cache == null ? 0 : cache.hitRate();
+    }
+
+    // Return how many probes the index operations of every segment needed, bucketed by probe count.
+    public long[] probeHistogram() {
+        long[] histogram = null;
+        for (CatalogSegment segment : segments) {
+            long[] inSegment = segment.read(LibrarySystem::probeHistogram);
+            if (histogram == null) {
+                histogram = inSegment;
+            } else {
+                for (int b = 0; b < histogram.length; b++) {
+                    histogram[b] += inSegment[b];
+                }
+            }
+        }
+        return histogram;
+    }
+
+    // Return the share of primary index slots holding a book, over all segments.
+    public double loadFactor() {
+        long books = 0;
+        long capacity = 0;
+        for (CatalogSegment segment : segments) {
+            books += segment.read(LibrarySystem::distinctBooks);
+            capacity += segment.read(LibrarySystem::libraryStorageCapacity);
+        }
+        return (double) books / capacity;
+    }
+
+    // Return the share of primary index slots holding a tombstone, over all segments.
+    public double tombstoneRatio() {
+        double tombstones = 0;
+        long capacity = 0;
+        for (CatalogSegment segment : segments) {
+            int inSegment = segment.read(LibrarySystem::libraryStorageCapacity);
+            tombstones += segment.read(LibrarySystem::tombstoneRatio) * inSegment;
+            capacity += inSegment;
+        }
+        return tombstones / capacity;
+    }
+
+    // Return how many times the indexes of the segments have grown.
+    public int resizes() {
+        int resizes = 0;
+        for (CatalogSegment segment : segments) {
+            resizes += segment.read(LibrarySystem::resizes);
+        }
+        return resizes;
+    }
+
+    // Return how many times the indexes of the segments were rebuilt to clear tombstones.
+    public int compactions() {
+        int compactions = 0;
+        for (CatalogSegment segment : segments) {
+            compactions += segment.read(LibrarySystem::compactions);
+        }
+        return compactions;
+    }
+
+    // Return the nanoseconds the indexes of the segments spent moving entries during rebuilds.
+    public long rebuildNanos() {
+        long nanos = 0;
+        for (CatalogSegment segment : segments) {
+            nanos += segment.read(LibrarySystem::rebuildNanos);
+        }
+        return nanos;
+    }
+
+    // Return the number of loans in the ledgers of the segments.
+    public int loans() {
+        return booksBorrowed();
+    }
+
+    // Return the number of loans the ledgers of the segments can hold.
+    public int loanCapacity() {
+        int capacity = 0;
+        for (CatalogSegment segment : segments) {
+            capacity += segment.read(LibrarySystem::loanCapacity);
+        }
+        return capacity;
+    }
+
+    public Book[] getBooksInLibrary() {
+        List<Book> books = new ArrayList<>();
+        for (CatalogSegment segment : segments) {
+            books.addAll(Arrays.asList(segment.readLocked(LibrarySystem::getBooksInLibrary)));
+        }
+        return books.toArray(new Book[0]);
+    }
+
+    public Book[] getBorrowedBooks() {
+        List<Book> books = new ArrayList<>();
+        for (CatalogSegment segment : segments) {
+            books.addAll(Arrays.asList(segment.readLocked(LibrarySystem::getBorrowedBooks)));
+        }
+        return books.toArray(new Book[0]);
+    }
+
+    private void invalidate(Book book) {
+        LookupCache cache = lookupCache;
+        if (cache != null) {
+            cache.invalidate(book);
+        }
+    }
+
+    // Pick the segment of an ISBN from its normalized key.
+    private CatalogSegment segmentOf(String isbn) {
+        return segments[segmentIndex(isbn)];
+    }
+
+    private int segmentIndex(String isbn) {
+        long key = IsbnKeys.key(isbn);
+        int hash = (int) (key ^ (key >>> 32));
+        hash ^= hash >>> 16;
+        return hash & (segments.length - 1);
+    }
+}
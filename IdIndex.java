@@ -0,0 +1,283 @@
+import java.io.IOException;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+// Open-addressed secondary index from a String key to int record ids.
+// Each slot keeps the key hash next to the id, so probes compare ints and only
+// resolve the key of a record when the hashes match. Deleted slots become
+// tombstones, and growing or compacting the table is done incrementally.
+class IdIndex {
+    private static final int EMPTY = 0;
+    private static final int TOMBSTONE = -1;
+    private static final double LOAD_FACTOR_THRESHOLD = 0.75;
+    private static final double TOMBSTONE_THRESHOLD = 0.2;
+    private static final int MIGRATION_STEP = 16;
+    private static final int RESIZE = 2;
+
+    private final IntFunction<String> keyOf;
+    private int[] slots; // pairs of (hash, id + 1), EMPTY or TOMBSTONE in the id half
+    private int[] oldSlots; // table being drained by an incremental rebuild
+    private ProbeEngine probeEngine;
+    private ProbeEngine oldProbeEngine;
+    private int capacity;
+    private int size;
+    private int tombstones;
+    private int migrationCursor;
+    private int resizes; // rebuilds that grew the table
+    private int compactions; // rebuilds that only cleared tombstones
+    private long rebuildNanos; // time spent moving entries into rebuilt tables
+
+    public IdIndex(int capacity, IntFunction<String> keyOf) {
+        this.capacity = ProbeEngine.nextPrime(Math.max(capacity, 3));
+        this.slots = new int[this.capacity * 2];
+        this.probeEngine = new ProbeEngine(this.capacity);
+        this.keyOf = keyOf;
+    }
+
+    // Read an index written by writeTo.
+    public IdIndex(SnapshotReader in, IntFunction<String> keyOf) {
+        this.capacity = in.getInt();
+        this.size = in.getInt();
+        this.tombstones = in.getInt();
+        this.slots = in.getInts(capacity * 2);
+        this.probeEngine = new ProbeEngine(capacity);
+        this.keyOf = keyOf;
+    }
+
+    // Write the index for a snapshot, finishing any rebuild first.
+    public void writeTo(SnapshotWriter out) throws IOException {
+        finishRebuild();
+        out.putInt(capacity);
+        out.putInt(size);
+        out.putInt(tombstones);
+        out.putInts(slots, 0, slots.length);
+    }
+
+    // Grow the table up front so the given number of ids fit under the load factor,
+    // moving every entry at once instead of rebuilding several times on the way.
+    public void ensureCapacity(int entries) {
+        int needed = (int) Math.min(Integer.MAX_VALUE / 2, (long) (entries / LOAD_FACTOR_THRESHOLD) + 1);
+
+        if (needed > capacity) {
+            migrateSlots(Integer.MAX_VALUE);
+            startRebuild(ProbeEngine.nextPrime(needed));
+            migrateSlots(Integer.MAX_VALUE);
+        }
+    }
+
+    // Drain whatever an incremental rebuild has left in the old table.
+    public void finishRebuild() {
+        migrateSlots(Integer.MAX_VALUE);
+    }
+
+    // Return the capacity of the table.
+    public int capacity() {
+        return capacity;
+    }
+
+    // Return the number of ids in the index.
+    public int size() {
+        return size;
+    }
+
+    // Return the share of table slots holding a tombstone.
+    public double tombstoneRatio() {
+        return (double) tombstones / capacity;
+    }
+
+    // Checks if an incremental rebuild is still draining the old table.
+    public boolean isRebuilding() {
+        return oldSlots != null;
+    }
+
+    // Return how many probes the operations needed, bucketed by probe count.
+    public long[] probeHistogram() {
+        return probeEngine.probeHistogram();
+    }
+
+    // Return how many times the table has grown.
+    public int resizes() {
+        return resizes;
+    }
+
+    // Return how many times the table was rebuilt to clear tombstones.
+    public int compactions() {
+        return compactions;
+    }
+
+    // Return the nanoseconds spent moving entries during rebuilds.
+    public long rebuildNanos() {
+        return rebuildNanos;
+    }
+
+    // Add the id of a record whose key has the given hash.
+    public void add(int id, int hash) {
+        migrateSlots(MIGRATION_STEP);
+
+        if ((double) (size + tombstones) / capacity >= LOAD_FACTOR_THRESHOLD) {
+            migrateSlots(Integer.MAX_VALUE);
+            startRebuild(ProbeEngine.nextPrime(capacity * RESIZE));
+        }
+        if (insert(slots, hash, id, probeEngine)) {
+            tombstones--;
+        }
+        size++;
+    }
+
+    // Remove the id of a record whose key has the given hash.
+    public boolean remove(int id, int hash) {
+        migrateSlots(MIGRATION_STEP);
+
+        int slot = slotOf(slots, probeEngine, hash, id);
+        if (slot >= 0) {
+            slots[slot + 1] = TOMBSTONE;
+            tombstones++;
+        } else if (isRebuilding() && (slot = slotOf(oldSlots, oldProbeEngine, hash, id)) >= 0) {
+            oldSlots[slot + 1] = TOMBSTONE;
+        } else {
+            return false;
+        }
+        size--;
+
+        if (!isRebuilding() && tombstoneRatio() >= TOMBSTONE_THRESHOLD) {
+            startRebuild(capacity);
+        }
+        return true;
+    }
+
+    // Return the first id stored under the key, or -1.
+    public int find(String key) {
+        return find(key, null);
+    }
+
+    // Return the first id stored under the key that the filter accepts, or -1.
+    public int find(String key, IntPredicate filter) {
+        int hash = key.hashCode();
+        int id = find(slots, probeEngine, hash, key, filter);
+
+        if (id < 0 && isRebuilding()) {
+            id = find(oldSlots, oldProbeEngine, hash, key, filter);
+        }
+        return id;
+    }
+
+    // Pass every id stored under the key to the action.
+    public void forEach(String key, IntConsumer action) {
+        find(key, id -> {
+            action.accept(id);
+            return false;
+        });
+    }
+
+    private int find(int[] table, ProbeEngine engine, int hash, String key, IntPredicate filter) {
+        int index = engine.home(hash);
+        int step = engine.step(hash);
+        int length = table.length / 2;
+
+        for (int probes = 1; probes <= length; probes++) {
+            int slot = index * 2;
+            int value = table[slot + 1];
+
+            if (value == EMPTY) {
+                engine.record(probes);
+                return -1;
+            }
+
+            else if (value != TOMBSTONE && table[slot] == hash && keyOf.apply(value - 1).equals(key)
+                    && (filter == null || filter.test(value - 1))) {
+                engine.record(probes);
+                return value - 1;
+            }
+            index = engine.next(index, step);
+        }
+        return -1;
+    }
+
+    // Find the slot holding the id, or -1.
+    private static int slotOf(int[] table, ProbeEngine engine, int hash, int id) {
+        int index = engine.home(hash);
+        int step = engine.step(hash);
+        int length = table.length / 2;
+
+        for (int probes = 1; probes <= length; probes++) {
+            int slot = index * 2;
+            int value = table[slot + 1];
+
+            if (value == EMPTY) {
+                return -1;
+            }
+
+            else if (value == id + 1 && table[slot] == hash) {
+                return slot;
+            }
+            index = engine.next(index, step);
+        }
+        return -1;
+    }
+
+    // Put an id in the first empty or tombstone slot of its probe sequence, so a key
+    // that keeps being removed and added again does not lengthen its own chain.
+    // Returns true when a tombstone was taken.
+    private static boolean insert(int[] table, int hash, int id, ProbeEngine engine) {
+        int index = engine.home(hash);
+        int step = engine.step(hash);
+        int probes = 1;
+
+        while (table[index * 2 + 1] != EMPTY && table[index * 2 + 1] != TOMBSTONE) {
+            index = engine.next(index, step);
+            probes++;
+        }
+        boolean reused = table[index * 2 + 1] == TOMBSTONE;
+        table[index * 2] = hash;
+        table[index * 2 + 1] = id + 1;
+        engine.record(probes);
+        return reused;
+    }
+
+    // Start rebuilding into a fresh table of the given capacity.
+    // The old table is drained a few slots per operation by migrateSlots.
+    private void startRebuild(int newCapacity) {
+        if (newCapacity > capacity) {
+            resizes++;
+        } else {
+            compactions++;
+        }
+        oldSlots = slots;
+        oldProbeEngine = probeEngine;
+        migrationCursor = 0;
+
+        slots = new int[newCapacity * 2];
+        probeEngine = probeEngine.resize(newCapacity);
+        capacity = newCapacity;
+        tombstones = 0;
+    }
+
+    // Move the next live entries of the old table into the current one.
+    // Moved entries leave a tombstone so lookups in the old table cannot see them twice.
+    private void migrateSlots(int count) {
+        if (!isRebuilding()) {
+            return;
+        }
+        long start = System.nanoTime();
+        int end = (int) Math.min((long) migrationCursor + count, oldSlots.length / 2);
+
+        for (; migrationCursor < end; migrationCursor++) {
+            int slot = migrationCursor * 2;
+            int value = oldSlots[slot + 1];
+
+            if (value != EMPTY && value != TOMBSTONE) {
+                if (insert(slots, oldSlots[slot], value - 1, probeEngine)) {
+                    tombstones--;
+                }
+                oldSlots[slot + 1] = TOMBSTONE;
+            }
+        }
+
+        if (migrationCursor == oldSlots.length / 2) {
+            oldSlots = null;
+            oldProbeEngine = null;
+        }
+        rebuildNanos += System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+// Spliterator over a range of slab ids, handing out the books of the ids that are live.
+// It reads the slab in place, so iterating needs no copy, and it splits the range
+// in halves for parallel streams.
+class IdRangeSpliterator implements Spliterator<Book> {
+    private static final int MIN_SPLIT = 1024;
+
+    private final IntPredicate live;
+    private final IntFunction<Book> books;
+    private int from;
+    private final int to;
+
+    public IdRangeSpliterator(int from, int to, IntPredicate live, IntFunction<Book> books) {
+        this.from = from;
+        this.to = to;
+        this.live = live;
+        this.books = books;
+    }
+
+    public boolean tryAdvance(Consumer<? super Book> action) {
+        while (from < to) {
+            int id = from++;
+            if (live.test(id)) {
+                action.accept(books.apply(id));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void forEachRemaining(Consumer<? super Book> action) {
+        for (; from < to; from++) {
+            if (live.test(from)) {
+                action.accept(books.apply(from));
+            }
+        }
+    }
+
+    public Spliterator<Book> trySplit() {
+        int middle = (from + to) >>> 1;
+        if (middle - from < MIN_SPLIT) {
+            return null;
+        }
+        Spliterator<Book> prefix = new IdRangeSpliterator(from, middle, live, books);
+        from = middle;
+        return prefix;
+    }
+
+    public long estimateSize() {
+        return to - from;
+    }
+
+    public int characteristics() {
+        return ORDERED | DISTINCT | NONNULL;
+    }
+}
@@ -0,0 +1,84 @@
+// Turns ISBN strings into 64-bit keys for the ISBN index.
+// ISBN-10 and ISBN-13 forms of the same book, with or without hyphens and
+// spaces, give the same key: the ISBN-13 digits read as a number. Anything
+// that is not an ISBN, including a mistyped one whose check digit is wrong,
+// gets a hashed key with the sign bit set, which never clashes with a real
+// ISBN but has to be confirmed against the stored string.
+final class IsbnKeys {
+
+    private IsbnKeys() {
+    }
+
+    // Return the key of an ISBN string.
+    public static long key(String isbn) {
+        long digits = 0;
+        int count = 0;
+        char check = 0;
+
+        for (int c = 0; c < isbn.length(); c++) {
+            char ch = isbn.charAt(c);
+
+            if (ch == '-' || ch == ' ') {
+                continue;
+            }
+            if (count == 9 && (ch == 'X' || ch == 'x')) {
+                check = 'X';
+                count++;
+                continue;
+            }
+            if (ch < '0' || ch > '9' || count == 13 || check != 0) {
+                return fallbackKey(isbn);
+            }
+            digits = digits * 10 + (ch - '0');
+            count++;
+        }
+
+        if (count == 13 && eanCheckDigit(digits / 10) == digits % 10) {
+            return digits;
+        }
+        if (count == 10) {
+            long nineDigits = check == 'X' ? digits : digits / 10;
+            if (isbn10CheckDigit(nineDigits) == (check == 'X' ? 10 : digits % 10)) {
+                // ISBN-10 becomes 978 + its first nine digits + a new EAN-13 check digit.
+                long body = 978_000_000_000L + nineDigits;
+                return body * 10 + eanCheckDigit(body);
+            }
+        }
+        return fallbackKey(isbn);
+    }
+
+    // Checks if a key was parsed from a real ISBN, in which case it identifies the string exactly.
+    public static boolean isExact(long key) {
+        return key >= 0;
+    }
+
+    // The check digit of an ISBN-10, with 10 standing for X.
+    private static int isbn10CheckDigit(long nineDigits) {
+        int sum = 0;
+        for (int weight = 2; weight <= 10; weight++) {
+            sum += (int) (nineDigits % 10) * weight;
+            nineDigits /= 10;
+        }
+        return (11 - sum % 11) % 11;
+    }
+
+    private static int eanCheckDigit(long twelveDigits) {
+        int sum = 0;
+        for (int position = 0; position < 12; position++) {
+            int digit = (int) (twelveDigits % 10);
+            sum += position % 2 == 0 ? digit * 3 : digit;
+            twelveDigits /= 10;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    // FNV-1a over the raw string, with the sign bit set.
+    private static long fallbackKey(String isbn) {
+        long hash = 0xcbf29ce484222325L;
+        for (int c = 0; c < isbn.length(); c++) {
+            hash ^= isbn.charAt(c);
+            hash *= 0x100000001b3L;
+        }
+        return hash | Long.MIN_VALUE;
+    }
+}
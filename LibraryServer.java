@@ -0,0 +1,292 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Line protocol front end of a library, for kiosks, scripts and load tests.
+// Every request is one line of tab-separated fields, the command first, and is
+// answered in order:
+//
+//   ADD title author isbn edition             OK
+//   REMOVE title author isbn edition          OK or NO
+//   BORROW title author isbn edition [patron] OK or NO
+//   RETURN title author isbn edition          OK or NO
+//   TITLE title, AUTHOR author, ISBN isbn     BOOK title author isbn edition, or NONE
+//   PREFIX text, KEYWORDS text                BOOKS n, then n BOOK lines
+//   COUNT                                     COUNT available borrowed
+//   QUIT                                      closes the connection
+//
+// A request that cannot be run gets ERR and the reason. Clients may send many
+// requests before reading any answer. A connection takes every line that has
+// already arrived as one batch, and the catalog thread runs all the batches
+// waiting from all connections in a row before answering them, so the handoff
+// between threads is paid per batch rather than per request, and the library,
+// which takes one thread at a time, only ever sees that one. Every connection
+// has a thread of its own that only ever blocks on its own socket.
+class LibraryServer implements Closeable {
+    private static final int MAX_BATCH = 1024;
+    private static final int LIST_LIMIT = 10;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final Batch STOP = new Batch();
+
+    private final LibrarySystem library;
+    private final BlockingQueue<Batch> batches = new LinkedBlockingQueue<>();
+    private final Thread catalog;
+    private final ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "library-connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<ServerSocket> listeners = new ArrayList<>();
+    private volatile boolean stopping; // set by the catalog thread before it wakes the batches left over
+    private volatile Throwable failure; // what ended the catalog thread, if it did not stop by itself
+
+    public LibraryServer(LibrarySystem library) {
+        this.library = library;
+        this.catalog = new Thread(this::runCatalog, "library-catalog");
+        catalog.setDaemon(true);
+        catalog.start();
+    }
+
+    // Accept connections on a loopback port, each served on a thread of its own,
+    // until the server is closed. Returns the port, which 0 lets the system pick.
+    public int listen(int port) throws IOException {
+        ServerSocket listener = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+        Thread acceptor = new Thread(() -> {
+            while (!listener.isClosed()) {
+                try {
+                    Socket socket = listener.accept();
+                    socket.setTcpNoDelay(true);
+                    connections.execute(() -> serve(socket));
+                } catch (IOException closed) {
+                    // The listener was closed, or the connection dropped before it was accepted.
+                }
+            }
+        }, "library-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return listener.getLocalPort();
+    }
+
+    // Answer the requests read from in on out, until the input ends or says QUIT.
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        boolean open = true;
+
+        while (open) {
+            String line = reader.readLine();
+            if (line == null) {
+                break;
+            }
+
+            // Take the requests the client has already sent along with this one.
+            Batch batch = new Batch();
+            while (true) {
+                if (line.equals("QUIT")) {
+                    open = false;
+                    break;
+                }
+                if (!line.isEmpty()) {
+                    batch.requests.add(line.split("\t", -1));
+                }
+                if (batch.requests.size() == MAX_BATCH || !reader.ready()) {
+                    break;
+                }
+                line = reader.readLine();
+                if (line == null) {
+                    open = false;
+                    break;
+                }
+            }
+
+            if (!batch.requests.isEmpty()) {
+                for (String response : run(batch)) {
+                    writer.write(response);
+                    writer.write('\n');
+                }
+            }
+            writer.flush();
+        }
+    }
+
+    // Stop accepting connections, finish the requests already handed over and stop
+    // running requests, so the library can be saved once this returns.
+    public void close() throws IOException {
+        synchronized (listeners) {
+            for (ServerSocket listener : listeners) {
+                listener.close();
+            }
+        }
+        batches.add(STOP);
+        connections.shutdownNow();
+        try {
+            catalog.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the server");
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket connection = socket) {
+            serve(connection.getInputStream(), connection.getOutputStream());
+        } catch (IOException e) {
+            // The client went away; its requests that were run stay done.
+        }
+    }
+
+    // Hand a batch to the catalog thread and wait for its answers. A batch handed
+    // over once the catalog thread is stopping may never be taken, so that is
+    // checked after the handover, when the thread either took it or gave up.
+    private String[] run(Batch batch) throws IOException {
+        try {
+            batches.put(batch);
+            if (!stopping) {
+                batch.done.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Server closed");
+        }
+        if (batch.responses == null) {
+            Throwable cause = failure;
+            throw cause == null ? new IOException("Server closed") : new IOException("The catalog failed", cause);
+        }
+        return batch.responses;
+    }
+
+    // The one thread that runs requests: it takes every batch waiting, runs them
+    // in order and only then wakes their connections. Batches behind STOP are
+    // woken without answers. An Error from the library may have left it half
+    // changed, so it stops the server: the batch it hit and every later one are
+    // woken without answers, and their connections report the failure.
+    private void runCatalog() {
+        List<Batch> taken = new ArrayList<>();
+        boolean stopped = false;
+        try {
+            while (!stopped) {
+                taken.add(batches.take());
+                batches.drainTo(taken);
+                for (Batch batch : taken) {
+                    stopped |= batch == STOP;
+                    if (stopped) {
+                        continue;
+                    }
+                    String[] responses = new String[batch.requests.size()];
+                    for (int r = 0; r < responses.length; r++) {
+                        responses[r] = execute(batch.requests.get(r));
+                    }
+                    batch.responses = responses;
+                }
+                for (Batch batch : taken) {
+                    batch.done.countDown();
+                }
+                taken.clear();
+            }
+        } catch (InterruptedException e) {
+            // Nobody is left to run requests; the batches left over are woken below.
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            stopping = true;
+            batches.drainTo(taken);
+            for (Batch batch : taken) {
+                batch.done.countDown();
+            }
+        }
+    }
+
+    private String execute(String[] fields) {
+        try {
+            switch (fields[0]) {
+                case "ADD":
+                    return answer(library.addABook(book(fields)));
+                case "REMOVE":
+                    return answer(library.removeABook(book(fields)));
+                case "BORROW":
+                    int patron = fields.length > 5 ? Integer.parseInt(fields[5]) : LibrarySystem.NO_PATRON;
+                    return answer(library.BorrowABook(book(fields), patron));
+                case "RETURN":
+                    return answer(library.returnABook(book(fields)));
+                case "TITLE":
+                    return describe(library.searchBookByTitle(argument(fields)));
+                case "AUTHOR":
+                    return describe(library.searchBookByAuthor(argument(fields)));
+                case "ISBN":
+                    return describe(library.searchBookByIsbn(argument(fields)));
+                case "PREFIX":
+                    return describe(library.searchBooksByTitlePrefix(argument(fields), LIST_LIMIT));
+                case "KEYWORDS":
+                    return describe(library.searchBooksByKeywords(argument(fields), LIST_LIMIT));
+                case "COUNT":
+                    return "COUNT\t" + library.booksInTheLibrary() + "\t" + library.booksBorrowed();
+                default:
+                    return "ERR\tUnknown command: " + fields[0];
+            }
+        } catch (RuntimeException e) {
+            return "ERR\t" + e.getMessage();
+        }
+    }
+
+    private static Book book(String[] fields) {
+        if (fields.length < 5) {
+            throw new IllegalArgumentException(fields[0] + " takes a title, author, isbn and edition");
+        }
+        return new Book(fields[1], fields[2], fields[3], Integer.parseInt(fields[4]));
+    }
+
+    private static String argument(String[] fields) {
+        if (fields.length < 2) {
+            throw new IllegalArgumentException(fields[0] + " takes one argument");
+        }
+        return fields[1];
+    }
+
+    private static String answer(boolean done) {
+        return done ? "OK" : "NO";
+    }
+
+    private static String describe(Book book) {
+        if (book == null) {
+            return "NONE";
+        }
+        return "BOOK\t" + book.getTitle() + "\t" + book.getAuthor() + "\t" + book.getIsbn() + "\t" + book.getEdition();
+    }
+
+    private static String describe(List<Book> books) {
+        StringBuilder answer = new StringBuilder("BOOKS\t").append(books.size());
+        for (Book book : books) {
+            answer.append('\n').append(describe(book));
+        }
+        return answer.toString();
+    }
+
+    // Requests of one connection that arrived together, and their answers once run.
+    private static final class Batch {
+        final List<String[]> requests = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        String[] responses;
+    }
+}
\ No newline at end of file
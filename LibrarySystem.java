@@ -0,0 +1,904 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Library catalog. It is not thread-safe, ConcurrentLibrarySystem shares one between threads.
+class LibrarySystem implements CatalogMetrics.Source {
+    private Book[][] records; // dense slab of catalog records in pages, indexed by book id; no pages with an arena
+    private int recordCount; // ids handed out so far
+    private int[] freeIds; // ids of removed records, reused before new ones
+    private int freeIdCount;
+    private AtomicLongArray[] copies; // per record: total copies in the high half, available in the low half
+    private LongIntMap isbns; // primary key, normalized ISBN to book id
+    private IdIndex titles;
+    private PostingIndex authors; // author to every book id written by them
+    private TitleTrie titleTrie; // built by the first prefix or fuzzy title search, then kept up to date
+    private TextIndex keywords; // built by the first keyword search, then kept up to date
+    private LoanLedger loans; // books on loan
+    private MappedRecords mappedRecords; // records of an opened snapshot, decoded on first use
+    private BookArena arena; // record text when the catalog keeps it compact, otherwise null
+    private WriteAheadLog log; // mutations are appended here when a log is attached
+    private long logSequence; // sequence of the last logged mutation applied
+    private final CatalogMetrics metrics = new CatalogMetrics(this);
+    private LookupCache lookupCache; // optional front cache of title, author and ISBN lookups
+    private final Function<String, Book> titleLookup = this::findBookByTitle;
+    private final Function<String, Book> authorLookup = this::findBookByAuthor;
+    private final Function<String, Book> isbnLookup = this::findBookByIsbn;
+    private int booksInTheLibrary;
+    private int booksBorrowed;
+    private int bookCopies; // copies owned, on the shelf or on loan
+    static final int DEFAULT_CAPACITY = 41;
+    static final int DEFAULT_LOAN_CAPACITY = 4096;
+    private static final long LOAN_PERIOD = 14L * 24 * 60 * 60 * 1000; // two weeks in milliseconds
+    static final int NO_PATRON = 0;
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final long ONE_COPY = (1L << 32) | 1; // adds one to both halves of a copy count
+    private static final long SNAPSHOT_MAGIC = 0x4c49425241525931L; // "LIBRARY1"
+    private static final int SNAPSHOT_HEADER_BYTES = 128;
+    private static final int SNAPSHOT_SECTIONS = 5; // state, isbns, titles, authors, records
+    private static final long SNAPSHOT_HEAP_ARENA = 1; // record storage in the header, 0 for Book objects
+    private static final long SNAPSHOT_OFF_HEAP_ARENA = 2;
+
+    public LibrarySystem() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LibrarySystem(int libraryCapacity) {
+        this(libraryCapacity, DEFAULT_LOAN_CAPACITY);
+    }
+
+    // A catalog that keeps the text of its records in an arena and hands out
+    // flyweight books, for catalogs too large to hold a Book object per record.
+    public LibrarySystem(int libraryCapacity, int loanCapacity, BookArena arena) {
+        this(libraryCapacity, loanCapacity);
+        this.arena = arena;
+    }
+
+    public LibrarySystem(int libraryCapacity, int loanCapacity) {
+
+        this.records = new Book[1][];
+        this.copies = new AtomicLongArray[1];
+        this.freeIds = new int[16];
+        this.isbns = new LongIntMap(libraryCapacity);
+        this.titles = new IdIndex(libraryCapacity, id -> record(id).getTitle());
+        this.authors = new PostingIndex(libraryCapacity);
+        this.loans = new LoanLedger(loanCapacity);
+        this.booksInTheLibrary = 0;
+        this.booksBorrowed = 0;
+
+    }
+
+    // Make room for the given number of distinct books before a bulk load, so the
+    // indexes are sized once and the slab pages are allocated up front. The author
+    // index is left to grow, since a catalog has far fewer authors than books.
+    public void ensureCapacity(int books) {
+        isbns.ensureCapacity(books);
+        titles.ensureCapacity(books);
+
+        int pages = (Math.max(books, recordCount) + PAGE_SIZE - 1) / PAGE_SIZE;
+        if (pages > records.length) {
+            records = Arrays.copyOf(records, pages);
+            copies = Arrays.copyOf(copies, pages);
+        }
+        for (int page = 0; page < pages; page++) {
+            allocatePage(page);
+        }
+    }
+
+    // Return the capacity of the table.
+    public int libraryStorageCapacity() {
+        return isbns.capacity();
+    }
+
+    // Return the number of elements in the table.
+    public int booksInTheLibrary() {
+        return booksInTheLibrary;
+    }
+
+    // Return the number of borrowed books
+    public int booksBorrowed() {
+        return booksBorrowed;
+    }
+
+    // Return the number of copies the library owns.
+    public int bookCopies() {
+        return bookCopies;
+    }
+
+    // Return the number of distinct books in the catalog.
+    public int distinctBooks() {
+        return isbns.size();
+    }
+
+    // Return how many copies of a book are on the shelf.
+    public int availableCopies(Book book) {
+        int id = idOf(book);
+        return id < 0 ? 0 : (int) copyCount(id);
+    }
+
+    // Return how many copies of a book the library owns.
+    public int totalCopies(Book book) {
+        int id = idOf(book);
+        return id < 0 ? 0 : (int) (copyCount(id) >>> 32);
+    }
+
+    // Return how many probes the index operations needed, bucketed by probe count.
+    public long[] probeHistogram() {
+        long[] histogram = isbns.probeHistogram();
+        long[] titleHistogram = titles.probeHistogram();
+        long[] authorHistogram = authors.probeHistogram();
+
+        for (int b = 0; b < histogram.length; b++) {
+            histogram[b] += titleHistogram[b] + authorHistogram[b];
+        }
+        return histogram;
+    }
+
+    // Return the share of primary index slots holding a tombstone.
+    public double tombstoneRatio() {
+        return isbns.tombstoneRatio();
+    }
+
+    // Return the share of primary index slots holding a book.
+    public double loadFactor() {
+        return (double) isbns.size() / isbns.capacity();
+    }
+
+    // Return how many times the indexes have grown.
+    public int resizes() {
+        return isbns.resizes() + titles.resizes() + authors.resizes();
+    }
+
+    // Return how many times the indexes were rebuilt to clear tombstones.
+    public int compactions() {
+        return isbns.compactions() + titles.compactions() + authors.compactions();
+    }
+
+    // Return the nanoseconds the indexes spent moving entries during rebuilds.
+    public long rebuildNanos() {
+        return isbns.rebuildNanos() + titles.rebuildNanos() + authors.rebuildNanos();
+    }
+
+    // Return the number of loans in the ledger.
+    public int loans() {
+        return loans.size();
+    }
+
+    // Return the number of loans the ledger can hold.
+    public int loanCapacity() {
+        return loans.capacity();
+    }
+
+    // Return the share of lookups answered by the lookup cache, 0 without one.
+    public double cacheHitRate() {
+        return lookupCache == null ? 0 : lookupCache.hitRate();
+    }
+
+    // Return the lookup counters and table gauges of the library.
+    public CatalogMetrics metrics() {
+        return metrics;
+    }
+
+    // Put a cache in front of the title, author and ISBN searches, or take it away with null.
+    // Borrowing and returning only change copy counts, which searches do not return,
+    // so only adding and dropping records invalidates it.
+    public void useLookupCache(LookupCache cache) {
+        this.lookupCache = cache;
+    }
+
+    // Checks if an incremental rebuild is still draining one of the indexes.
+    public boolean isRebuilding() {
+        return isbns.isRebuilding() || titles.isRebuilding() || authors.isRebuilding();
+    }
+
+    // Checks if the table is empty.
+    public boolean isLibraryEmpty() {
+        if (booksInTheLibrary == 0) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    // Add Student data entry into the hash table
+    // The book is stored once and the indexes only keep its id. Adding a book
+    // the catalog already has only adds a copy to its count.
+    public boolean addABook(Book book) {
+        checkLog();
+        int id = idOf(book);
+
+        if (id < 0) {
+            id = allocateId();
+            if (arena != null) {
+                arena.put(id, book);
+            } else {
+                records[id >>> PAGE_SHIFT][id & (PAGE_SIZE - 1)] = book;
+            }
+
+            isbns.add(IsbnKeys.key(book.getIsbn()), id);
+            titles.add(id, book.getTitle().hashCode());
+            authors.add(book.getAuthor(), id);
+            if (titleTrie != null) {
+                titleTrie.add(book.getTitle(), id);
+            }
+            if (keywords != null) {
+                keywords.add(id, book.getTitle(), book.getAuthor());
+            }
+            if (lookupCache != null) {
+                lookupCache.invalidate(book);
+            }
+        } else {
+            keepRecord(id);
+        }
+        copies[id >>> PAGE_SHIFT].addAndGet(id & (PAGE_SIZE - 1), ONE_COPY);
+        booksInTheLibrary++;
+        bookCopies++;
+        logMutation(WriteAheadLog.ADD, book, NO_PATRON, System.currentTimeMillis());
+
+        return true;
+    }
+
+    // Withdraw one copy of a book that is on the shelf. The book leaves the
+    // catalog with its last copy.
+    public boolean removeABook(Book book) {
+        checkLog();
+        int id = idOf(book);
+
+        if (id < 0 || !takeCopy(id)) {
+            return false;
+        }
+        keepRecord(id); // record() finds no mapped record once the last copy is gone
+        long left = copies[id >>> PAGE_SHIFT].addAndGet(id & (PAGE_SIZE - 1), -(1L << 32));
+        if (left >>> 32 == 0) {
+            if (arena != null) {
+                // The book may be a flyweight over the record, which stops reading once it is gone.
+                book = new Book(book.getTitle(), book.getAuthor(), book.getIsbn(), book.getEdition());
+            }
+            removeRecord(id);
+        }
+        booksInTheLibrary--;
+        bookCopies--;
+        logMutation(WriteAheadLog.REMOVE, book, NO_PATRON, System.currentTimeMillis());
+        return true;
+    }
+
+    // Delete book from the hash table (library).
+    public boolean BorrowABook(Book book) {
+        return BorrowABook(book, NO_PATRON);
+    }
+
+    // Lend a book to a patron for LOAN_PERIOD. Fails when the book is not on
+    // the shelf or when the loan ledger is full.
+    // Only the copy count changes, the book stays in the indexes.
+    public boolean BorrowABook(Book book, int patron) {
+        return borrow(book, patron, System.currentTimeMillis());
+    }
+
+    private boolean borrow(Book book, int patron, long now) {
+        checkLog();
+        int id = idOf(book);
+
+        if (id < 0 || loans.isFull() || !takeCopy(id)) {
+            return false;
+        }
+        keepRecord(id);
+        enqueue(book, patron, now);
+        booksInTheLibrary--;
+        logMutation(WriteAheadLog.BORROW, book, patron, now);
+        return true;
+    }
+
+    // Take a borrowed book back and put the copy on the shelf again.
+    public boolean returnABook(Book book) {
+        checkLog();
+        int slot = loans.find(book);
+
+        if (slot < 0) {
+            return false;
+        }
+        loans.giveBack(slot);
+        int id = idOf(book);
+        copies[id >>> PAGE_SHIFT].incrementAndGet(id & (PAGE_SIZE - 1));
+        booksBorrowed--;
+        booksInTheLibrary++;
+        logMutation(WriteAheadLog.RETURN, book, NO_PATRON, System.currentTimeMillis());
+        return true;
+    }
+
+    // Return the books a patron has on loan, the latest loan first.
+    public List<Book> booksBorrowedBy(int patron) {
+        List<Book> books = new ArrayList<>();
+        loans.forEachOfPatron(patron, slot -> books.add(loans.book(slot)));
+        return books;
+    }
+
+    // Return the borrowed books due before the given time, in milliseconds since the epoch.
+    public List<Book> booksDueBefore(long time) {
+        List<Book> books = new ArrayList<>();
+        loans.forEachDueBefore(time, slot -> books.add(loans.book(slot)));
+        return books;
+    }
+
+    // Return the loans due before the given time, in milliseconds since the epoch,
+    // that no reminder was taken for yet, and count them as reminded. This changes
+    // the ledger, so it is no LoanReminders.Source of its own: the concurrent
+    // catalogs call it under their locks.
+    public List<LoanReminders.Loan> takeLoansDueBefore(long time) {
+        List<LoanReminders.Loan> due = new ArrayList<>();
+        loans.takeDueBefore(time, slot -> due.add(
+                new LoanReminders.Loan(loans.book(slot), loans.patron(slot), loans.borrowedAt(slot), loans.dueAt(slot))));
+        return due;
+    }
+
+    // Search the book using its title.
+    public Book searchBookByTitle(String title) {
+        Book book = lookupCache == null ? findBookByTitle(title) : lookupCache.title(title, titleLookup);
+        metrics.countTitleLookup(book != null);
+        return book;
+    }
+
+    // Same as searchBookByTitle, without counting the lookup.
+    Book findBookByTitle(String title) {
+        int id = titles.find(title);
+        return id < 0 ? null : record(id);
+    }
+
+    // List the books whose title starts with the prefix, ignoring case and punctuation,
+    // in alphabetical order of title with an exact match first.
+    public List<Book> searchBooksByTitlePrefix(String prefix, int limit) {
+        List<Book> books = new ArrayList<>();
+        if (limit > 0) {
+            titleTrie().forEachWithPrefix(prefix, id -> {
+                books.add(record(id));
+                return books.size() < limit;
+            });
+        }
+        return books;
+    }
+
+    // List the books whose title is at most maxEdits typos away from the given one,
+    // closest first.
+    public List<Book> searchBooksByTitleFuzzy(String title, int maxEdits, int limit) {
+        List<Book> books = new ArrayList<>();
+        if (limit > 0) {
+            for (int id : titleTrie().fuzzy(title, maxEdits, limit)) {
+                books.add(record(id));
+            }
+        }
+        return books;
+    }
+
+    // Checks if the prefix and fuzzy title index has been built.
+    boolean hasTitleTrie() {
+        return titleTrie != null;
+    }
+
+    // List the books matching a keyword query over titles and authors, best first.
+    // Every word must match, OR separates alternatives: "history rome OR gibbon".
+    public List<Book> searchBooksByKeywords(String query, int limit) {
+        List<Book> books = new ArrayList<>();
+        for (TextIndex.Match match : matchKeywords(query, limit)) {
+            books.add(match.book);
+        }
+        return books;
+    }
+
+    // Same as searchBooksByKeywords, with the score of every book.
+    List<TextIndex.Match> matchKeywords(String query, int limit) {
+        return keywordIndex().search(query, limit, this::record);
+    }
+
+    // Checks if the keyword index has been built.
+    boolean hasKeywordIndex() {
+        return keywords != null;
+    }
+
+    // Search the book using its isbn, in ISBN-10 or ISBN-13 form.
+    public Book searchBookByIsbn(String isbn) {
+        Book book = lookupCache == null ? findBookByIsbn(isbn) : lookupCache.isbn(isbn, isbnLookup);
+        metrics.countIsbnLookup(book != null);
+        return book;
+    }
+
+    // Same as searchBookByIsbn, without counting the lookup.
+    Book findBookByIsbn(String isbn) {
+        long key = IsbnKeys.key(isbn);
+        int id = IsbnKeys.isExact(key) ? isbns.find(key)
+                : isbns.find(key, candidate -> record(candidate).getIsbn().equals(isbn));
+        return id < 0 ? null : record(id);
+    }
+
+    // Search the book using its authors.
+    public Book searchBookByAuthor(String author) {
+        Book book = lookupCache == null ? findBookByAuthor(author) : lookupCache.author(author, authorLookup);
+        metrics.countAuthorLookup(book != null);
+        return book;
+    }
+
+    // Same as searchBookByAuthor, without counting the lookup.
+    Book findBookByAuthor(String author) {
+        PostingList ids = authors.get(author);
+        return ids == null ? null : record(ids.first());
+    }
+
+    // Return the number of books written by an author.
+    public int countBooksByAuthor(String author) {
+        PostingList ids = authors.get(author);
+        return ids == null ? 0 : ids.size();
+    }
+
+    // Stream every book written by an author, in id order.
+    public Stream<Book> booksByAuthor(String author) {
+        PostingList ids = authors.get(author);
+
+        if (ids == null) {
+            return Stream.empty();
+        }
+        Spliterator.OfInt spliterator = Spliterators.spliterator(ids.iterator(), ids.size(),
+                Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL);
+        return StreamSupport.intStream(spliterator, false).mapToObj(this::record);
+    }
+
+    // Return one page of the books written by an author, pages start at 0.
+    public List<Book> searchBooksByAuthor(String author, int page, int pageSize) {
+        return booksByAuthor(author).skip((long) page * pageSize).limit(pageSize).collect(Collectors.toList());
+    }
+
+    // Return the prefix and fuzzy title index, building it from the records the first time.
+    private TitleTrie titleTrie() {
+        if (titleTrie == null) {
+            TitleTrie trie = new TitleTrie();
+            for (int id = 0; id < recordCount; id++) {
+                if (copyCount(id) != 0) {
+                    trie.add(record(id).getTitle(), id);
+                }
+            }
+            titleTrie = trie;
+        }
+        return titleTrie;
+    }
+
+    // Return the keyword index, building it from the records the first time.
+    private TextIndex keywordIndex() {
+        if (keywords == null) {
+            TextIndex index = new TextIndex(DEFAULT_CAPACITY);
+            for (int id = 0; id < recordCount; id++) {
+                if (copyCount(id) != 0) {
+                    Book book = record(id);
+                    index.add(id, book.getTitle(), book.getAuthor());
+                }
+            }
+            keywords = index;
+        }
+        return keywords;
+    }
+
+    // Record the loan of a book in the ledger.
+    private void enqueue(Book book, int patron, long now) {
+        loans.checkout(book, patron, now, now + LOAN_PERIOD);
+        booksBorrowed++;
+    }
+
+    // Return the record stored under an id.
+    // Records of an opened snapshot are decoded from the mapped file until a
+    // mutation keeps them in the slab. Reading stores nothing, since a read may run
+    // under an optimistic stamp while a writer removes the record and reuses its id.
+    // With an arena every call returns a fresh flyweight over the arena.
+    private Book record(int id) {
+        if (arena != null) {
+            return arena.book(id);
+        }
+        Book book = records[id >>> PAGE_SHIFT][id & (PAGE_SIZE - 1)];
+
+        if (book == null && mappedRecords != null && copyCount(id) != 0) {
+            book = mappedRecords.book(id);
+        }
+        return book;
+    }
+
+    // Keep a record decoded from an opened snapshot in the slab, so it is not
+    // decoded again. Only mutations call it, which have the library to themselves.
+    private void keepRecord(int id) {
+        if (arena == null && mappedRecords != null && records[id >>> PAGE_SHIFT][id & (PAGE_SIZE - 1)] == null) {
+            records[id >>> PAGE_SHIFT][id & (PAGE_SIZE - 1)] = mappedRecords.book(id);
+        }
+    }
+
+    // Return the id of the record equal to the book, or -1.
+    private int idOf(Book book) {
+        if (arena != null) {
+            return isbns.find(IsbnKeys.key(book.getIsbn()), candidate -> arena.matches(candidate, book));
+        }
+        return isbns.find(IsbnKeys.key(book.getIsbn()), candidate -> record(candidate).equals(book));
+    }
+
+    // Return the packed copy count of a record.
+    private long copyCount(int id) {
+        return copies[id >>> PAGE_SHIFT].get(id & (PAGE_SIZE - 1));
+    }
+
+    // Take one copy of a record off the shelf, failing when none is left.
+    private boolean takeCopy(int id) {
+        AtomicLongArray page = copies[id >>> PAGE_SHIFT];
+        int offset = id & (PAGE_SIZE - 1);
+
+        while (true) {
+            long count = page.get(offset);
+            if ((int) count == 0) {
+                return false;
+            }
+            if (page.compareAndSet(offset, count, count - 1)) {
+                return true;
+            }
+        }
+    }
+
+    // Hand out a free id, reusing removed ones first. The slab grows a page at a time.
+    private int allocateId() {
+        if (freeIdCount > 0) {
+            return freeIds[--freeIdCount];
+        }
+        int id = recordCount++;
+        int page = id >>> PAGE_SHIFT;
+
+        if (page == records.length) {
+            records = Arrays.copyOf(records, records.length * 2);
+            copies = Arrays.copyOf(copies, copies.length * 2);
+        }
+        allocatePage(page);
+        return id;
+    }
+
+    // Allocate the copy counts of a slab page, and its records unless the arena holds them.
+    private void allocatePage(int page) {
+        if (copies[page] == null) {
+            copies[page] = new AtomicLongArray(PAGE_SIZE);
+            if (arena == null) {
+                records[page] = new Book[PAGE_SIZE];
+            }
+        }
+    }
+
+    // Drop a record from the indexes and the slab, and keep its id for reuse.
+    private void removeRecord(int id) {
+        Book book = record(id);
+
+        isbns.remove(IsbnKeys.key(book.getIsbn()), id);
+        titles.remove(id, book.getTitle().hashCode());
+        authors.remove(book.getAuthor(), id);
+        if (titleTrie != null) {
+            titleTrie.remove(book.getTitle(), id);
+        }
+        if (keywords != null) {
+            keywords.remove(id, book.getTitle(), book.getAuthor());
+        }
+        if (lookupCache != null) {
+            lookupCache.invalidate(book); // while a flyweight book can still read its record
+        }
+        if (arena != null) {
+            arena.remove(id);
+        } else {
+            records[id >>> PAGE_SHIFT][id & (PAGE_SIZE - 1)] = null;
+        }
+        copies[id >>> PAGE_SHIFT].set(id & (PAGE_SIZE - 1), 0);
+
+        if (freeIdCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+        }
+        freeIds[freeIdCount++] = id;
+    }
+
+    // Return how many loans are of books the predicate picks.
+    int loansOf(Predicate<Book> books) {
+        int[] count = new int[1];
+        loans.forEach(slot -> {
+            if (books.test(loans.book(slot))) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    // Move the books the predicate picks to another catalog with all their copies
+    // and loans, each loan keeping its patron and due date, as when a shard hands
+    // part of its keys to another one. Returns how many distinct books moved.
+    int moveBooksTo(LibrarySystem target, Predicate<Book> moving) {
+        List<Book> leaving = new ArrayList<>();
+        int loansLeaving = 0;
+
+        for (int id = 0; id < recordCount; id++) {
+            long count = copyCount(id);
+            if (count >>> 32 == 0) {
+                continue;
+            }
+            Book book = record(id);
+            if (moving.test(book)) {
+                // A plain copy, since a flyweight stops reading once its record is gone.
+                leaving.add(new Book(book.getTitle(), book.getAuthor(), book.getIsbn(), book.getEdition()));
+                loansLeaving += (int) (count >>> 32) - (int) count;
+            }
+        }
+        if (loansLeaving > target.loans.capacity() - target.loans.size()) {
+            throw new IllegalStateException("The target's loan ledger has no room for " + loansLeaving + " loans");
+        }
+        // Loans this ledger already took reminders for are not reminded again over there.
+        target.loans.skipRemindersBefore(loans.remindedBefore());
+
+        for (Book book : leaving) {
+            for (int slot = loans.find(book); slot >= 0; slot = loans.find(book)) {
+                int patron = loans.patron(slot);
+                long borrowedAt = loans.borrowedAt(slot);
+                returnABook(book);
+                removeABook(book);
+                target.addABook(book);
+                target.borrow(book, patron, borrowedAt);
+            }
+            while (removeABook(book)) {
+                target.addABook(book);
+            }
+        }
+        return leaving.size();
+    }
+
+    // Return the sequence of the last logged mutation the library holds.
+    public long logSequence() {
+        return logSequence;
+    }
+
+    // Append the library's mutations to a write-ahead log from now on.
+    void attachLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    // Apply a mutation read back from the write-ahead log, without logging it again.
+    // A loan the ledger has no room for would leave the catalog behind the log,
+    // so it stops the replay instead.
+    void replay(byte type, Book book, int patron, long time, long sequence) {
+        WriteAheadLog attached = log;
+        log = null;
+        try {
+            switch (type) {
+                case WriteAheadLog.ADD:
+                    addABook(book);
+                    break;
+                case WriteAheadLog.BORROW:
+                    if (loans.isFull()) {
+                        throw new IllegalStateException("The loan ledger has no room for the loan logged as "
+                                + sequence + ", it holds " + loans.capacity());
+                    }
+                    borrow(book, patron, time);
+                    break;
+                case WriteAheadLog.RETURN:
+                    returnABook(book);
+                    break;
+                default:
+                    removeABook(book);
+            }
+        } finally {
+            log = attached;
+        }
+        logSequence = sequence;
+    }
+
+    // Refuse a mutation before it changes anything when the attached log has failed,
+    // rather than failing after the catalog has changed.
+    private void checkLog() {
+        if (log != null) {
+            log.checkHealthy();
+        }
+    }
+
+    private void logMutation(byte type, Book book, int patron, long time) {
+        if (log != null) {
+            logSequence = log.append(type, book, patron, time);
+        }
+    }
+
+    // Save a snapshot and empty the write-ahead log, which the snapshot now covers.
+    public void checkpoint(Path path) throws IOException {
+        saveSnapshot(path);
+        if (log != null) {
+            log.truncate();
+        }
+    }
+
+    // Write the catalog, its indexes and the loans to a snapshot file.
+    // The file starts with a header giving the offset and length of each section,
+    // the log sequence and whether the records were kept in an arena.
+    // It is written next to the target and moved over it, so a snapshot this
+    // library was opened from stays intact while its records are still mapped.
+    public void saveSnapshot(Path path) throws IOException {
+        long[] sections = new long[SNAPSHOT_SECTIONS * 2];
+        Path written = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (SnapshotWriter out = new SnapshotWriter(written)) {
+            out.putBytes(new byte[SNAPSHOT_HEADER_BYTES], 0, SNAPSHOT_HEADER_BYTES);
+
+            sections[0] = out.position();
+            out.putInt(recordCount);
+            out.putInt(booksInTheLibrary);
+            out.putInt(booksBorrowed);
+            out.putInt(bookCopies);
+            out.putInt(freeIdCount);
+            out.putInts(freeIds, 0, freeIdCount);
+            for (int page = 0; page * PAGE_SIZE < recordCount; page++) {
+                for (int offset = 0; offset < PAGE_SIZE && page * PAGE_SIZE + offset < recordCount; offset++) {
+                    out.putLong(copies[page].get(offset));
+                }
+            }
+            out.putInt(loans.capacity());
+            out.putInt(loans.size());
+            loans.forEach(slot -> {
+                try {
+                    out.putInt(idOf(loans.book(slot)));
+                    out.putInt(loans.patron(slot));
+                    out.putLong(loans.borrowedAt(slot));
+                    out.putLong(loans.dueAt(slot));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            sections[2] = out.position();
+            isbns.writeTo(out);
+            sections[4] = out.position();
+            titles.writeTo(out);
+            sections[6] = out.position();
+            authors.writeTo(out);
+            sections[8] = out.position();
+            MappedRecords.write(out, recordCount, id -> copyCount(id) == 0 ? null : record(id));
+            long end = out.position();
+
+            for (int s = 0; s < SNAPSHOT_SECTIONS; s++) {
+                long next = s + 1 < SNAPSHOT_SECTIONS ? sections[(s + 1) * 2] : end;
+                sections[s * 2 + 1] = next - sections[s * 2];
+            }
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(SNAPSHOT_MAGIC);
+            for (long value : sections) {
+                header.putLong(value);
+            }
+            header.putLong(logSequence);
+            header.putLong(arena == null ? 0 : arena.isOffHeap() ? SNAPSHOT_OFF_HEAP_ARENA : SNAPSHOT_HEAP_ARENA);
+            header.clear();
+            out.putAt(0, header);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(written, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Open a snapshot written by saveSnapshot. The indexes are copied out of the
+    // mapped file as they are, with no rehashing, and the records stay in the
+    // mapping until they are first used. A library saved with an arena gets one
+    // again, and its records are copied into it up front.
+    public static LibrarySystem openSnapshot(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SNAPSHOT_HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong() != SNAPSHOT_MAGIC) {
+                throw new IOException(path + " is not a library snapshot");
+            }
+            SnapshotReader[] sections = new SnapshotReader[SNAPSHOT_SECTIONS];
+            ByteBuffer recordSection = null;
+            for (int s = 0; s < SNAPSHOT_SECTIONS; s++) {
+                long offset = header.getLong();
+                long length = header.getLong();
+                ByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                sections[s] = new SnapshotReader(section);
+                recordSection = section;
+            }
+
+            long logSequence = header.getLong();
+            long storage = header.getLong();
+            SnapshotReader state = sections[0];
+            int recordCount = state.getInt();
+            int booksInTheLibrary = state.getInt();
+            int booksBorrowed = state.getInt();
+            int bookCopies = state.getInt();
+            int freeIdCount = state.getInt();
+            int[] freeIds = state.getInts(freeIdCount);
+            long[] copyCounts = state.getLongs(recordCount);
+            int loanCapacity = state.getInt();
+
+            LibrarySystem library = storage == 0 ? new LibrarySystem(DEFAULT_CAPACITY, loanCapacity)
+                    : new LibrarySystem(DEFAULT_CAPACITY, loanCapacity, new BookArena(storage == SNAPSHOT_OFF_HEAP_ARENA));
+            int pages = Math.max(1, (recordCount + PAGE_SIZE - 1) / PAGE_SIZE);
+            library.records = new Book[pages][];
+            library.copies = new AtomicLongArray[pages];
+            for (int page = 0; page < pages; page++) {
+                long[] counts = new long[PAGE_SIZE];
+                int from = page * PAGE_SIZE;
+                System.arraycopy(copyCounts, from, counts, 0, Math.max(0, Math.min(PAGE_SIZE, recordCount - from)));
+                if (library.arena == null) {
+                    library.records[page] = new Book[PAGE_SIZE];
+                }
+                library.copies[page] = new AtomicLongArray(counts);
+            }
+            library.recordCount = recordCount;
+            library.freeIds = Arrays.copyOf(freeIds, Math.max(16, freeIdCount));
+            library.freeIdCount = freeIdCount;
+            library.booksInTheLibrary = booksInTheLibrary;
+            library.booksBorrowed = booksBorrowed;
+            library.bookCopies = bookCopies;
+            library.logSequence = logSequence;
+            library.isbns = new LongIntMap(sections[1]);
+            library.titles = new IdIndex(sections[2], id -> library.record(id).getTitle());
+            library.authors = new PostingIndex(sections[3]);
+            library.mappedRecords = new MappedRecords(recordSection);
+            if (library.arena != null) {
+                for (int id = 0; id < recordCount; id++) {
+                    if (copyCounts[id] != 0) {
+                        library.arena.put(id, library.mappedRecords.book(id));
+                    }
+                }
+                library.mappedRecords = null;
+            }
+
+            int loanCount = state.getInt();
+            for (int loan = 0; loan < loanCount; loan++) {
+                Book book = library.record(state.getInt());
+                library.loans.checkout(book, state.getInt(), state.getLong(), state.getLong());
+            }
+            return library;
+        }
+    }
+
+    // Stream the books with at least one copy on the shelf, once each.
+    // The stream reads the slab in place instead of copying it.
+    public Stream<Book> availableBooks() {
+        return availableBooks(false);
+    }
+
+    // Same as availableBooks, split over the common pool when parallel is set.
+    public Stream<Book> availableBooks(boolean parallel) {
+        return StreamSupport.stream(new IdRangeSpliterator(0, recordCount, id -> (int) copyCount(id) > 0, this::record),
+                parallel);
+    }
+
+    // Return up to pageSize books with a copy on the shelf, starting at the cursor
+    // of the previous page, or at 0 for the first one. The cursor is a slab id, so
+    // it stays valid while books are added and borrowed in between.
+    public BookPage availableBooksPage(long cursor, int pageSize) {
+        List<Book> books = new ArrayList<>(pageSize);
+        int id = (int) cursor;
+
+        for (; id < recordCount && books.size() < pageSize; id++) {
+            if ((int) copyCount(id) > 0) {
+                books.add(record(id));
+            }
+        }
+        return new BookPage(books, id < recordCount ? id : BookPage.END);
+    }
+
+    // Stream the books on loan, once per loan, straight from the ledger.
+    public Stream<Book> borrowedBooks() {
+        return StreamSupport.stream(loans.spliterator(), false);
+    }
+
+    public Book[] getBooksInLibrary() {
+        return availableBooks().toArray(Book[]::new);
+    }
+
+    public Book[] getBorrowedBooks() {
+        return borrowedBooks().toArray(Book[]::new);
+    }
+}
@@ -0,0 +1,157 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Load generator for a LibraryServer on this machine. Every connection adds its
+// own books, then keeps a window of pipelined requests in flight until the time
+// is up: mostly ISBN and title lookups, with borrows and returns mixed in. It
+// prints the requests answered per second and the round trip of a window.
+//
+//   java LoadGenerator [port] [connections] [seconds] [window] [books per connection]
+//
+// With no port it starts a server of its own on an empty catalog.
+public class LoadGenerator {
+    private static final int DEFAULT_CONNECTIONS = 4;
+    private static final int DEFAULT_SECONDS = 10;
+    private static final int DEFAULT_WINDOW = 64;
+    private static final int DEFAULT_BOOKS = 10_000;
+
+    private static final LongAdder requests = new LongAdder();
+    private static final LongAdder errors = new LongAdder();
+    private static final LongAdder windows = new LongAdder();
+    private static final LongAdder windowNanos = new LongAdder();
+    private static final AtomicLong slowestWindow = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CONNECTIONS;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SECONDS;
+        int window = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_WINDOW;
+        int books = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_BOOKS;
+
+        LibraryServer server = null;
+        if (port == 0) {
+            LibrarySystem library = new LibrarySystem();
+            library.ensureCapacity(connections * books);
+            server = new LibraryServer(library);
+            port = server.listen(0);
+        }
+
+        List<Thread> clients = new ArrayList<>();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        for (int c = 0; c < connections; c++) {
+            int connection = c;
+            int serverPort = port;
+            Thread client = new Thread(() -> {
+                try {
+                    run(serverPort, connection, books, window, deadline);
+                } catch (IOException e) {
+                    System.err.println("Connection " + connection + " failed: " + e.getMessage());
+                }
+            }, "load-" + c);
+            clients.add(client);
+            client.start();
+        }
+
+        // Count from the first answered window, after the books were added.
+        while (windows.sum() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        long start = System.nanoTime();
+        long counted = requests.sum();
+        for (Thread client : clients) {
+            client.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long answered = requests.sum() - counted;
+
+        System.out.printf("%d connections, window %d: %.0f requests/s, %d errors%n",
+                connections, window, answered / elapsed, errors.sum());
+        System.out.printf("window round trip: mean %.1f us, max %.1f us%n",
+                windowNanos.sum() / 1e3 / Math.max(1, windows.sum()), slowestWindow.get() / 1e3);
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private static void run(int port, int connection, int books, int window, long deadline) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 16);
+
+            String[] isbns = new String[books];
+            String[] titles = new String[books];
+            String[] fields = new String[books];
+            for (int b = 0; b < books; b++) {
+                isbns[b] = String.format("979%02d%08d", connection % 100, b);
+                titles[b] = "Title " + connection + "-" + b;
+                fields[b] = titles[b] + "\tAuthor " + (b % 1000) + "\t" + isbns[b] + "\t1";
+            }
+            for (int from = 0; from < books; from += window) {
+                int to = Math.min(books, from + window);
+                for (int b = from; b < to; b++) {
+                    writer.write("ADD\t" + fields[b] + "\n");
+                }
+                writer.flush();
+                read(reader, to - from);
+            }
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            StringBuilder batch = new StringBuilder();
+            while (System.nanoTime() < deadline) {
+                batch.setLength(0);
+                for (int r = 0; r < window; r++) {
+                    int b = random.nextInt(books);
+                    int kind = random.nextInt(10);
+                    if (kind < 6) {
+                        batch.append("ISBN\t").append(isbns[b]);
+                    } else if (kind < 8) {
+                        batch.append("TITLE\t").append(titles[b]);
+                    } else if (kind == 8) {
+                        batch.append("BORROW\t").append(fields[b]).append('\t').append(connection + 1);
+                    } else {
+                        batch.append("RETURN\t").append(fields[b]);
+                    }
+                    batch.append('\n');
+                }
+                long sent = System.nanoTime();
+                writer.append(batch);
+                writer.flush();
+                read(reader, window);
+                long roundTrip = System.nanoTime() - sent;
+                windows.increment();
+                windowNanos.add(roundTrip);
+                slowestWindow.accumulateAndGet(roundTrip, Math::max);
+                requests.add(window);
+            }
+            writer.write("QUIT\n");
+            writer.flush();
+        }
+    }
+
+    private static void read(BufferedReader reader, int answers) throws IOException {
+        for (int a = 0; a < answers; a++) {
+            String answer = reader.readLine();
+            if (answer == null) {
+                throw new IOException("Server closed the connection");
+            }
+            if (answer.startsWith("ERR")) {
+                errors.increment();
+            }
+        }
+    }
+}
\ No newline at end of file
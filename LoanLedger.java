@@ -0,0 +1,306 @@
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+// Bounded ledger of the books on loan.
+// Every loan lives in a slot of preallocated parallel arrays, free slots are
+// chained in a free list, and the loans of a patron are chained through the
+// slots as well, so checking a book out or in allocates nothing. The ISBN and
+// patron maps are sized for a full ledger and clear their tombstones in place,
+// so churn does not make them allocate either.
+// The slots are also kept in a binary min-heap on the due date, which remembers
+// where each slot sits so a returned loan leaves it in O(log n). Loans due before
+// a time are the top of the heap, so finding them only visits those loans and
+// their children, never the loans that are not due yet.
+// A second heap holds the loans no reminder has been taken for. Taking the loans
+// that fell due pops them off it, so every loan is handed out for a reminder once
+// and a run costs O(k log n) for k new ones, however many loans are still overdue.
+class LoanLedger {
+    private static final int NONE = -1;
+
+    private final Book[] books;
+    private final int[] patrons;
+    private final long[] borrowedAt;
+    private final long[] dueAt;
+    private final int[] nextFree;
+    private final int[] nextOfPatron; // loans of one patron, doubly linked
+    private final int[] previousOfPatron;
+    private final DueHeap due; // every loan
+    private final DueHeap unreminded; // loans no reminder has been taken for
+    private final LongIntMap byIsbn; // ISBN key to loan slot
+    private final LongIntMap patronHeads; // patron to their first loan slot
+    private int freeHead;
+    private int highWater; // slots below this one have been used at least once
+    private int size;
+    private long remindedBefore = Long.MIN_VALUE; // loans due before this were taken for reminders
+
+    public LoanLedger(int capacity) {
+        this.books = new Book[capacity];
+        this.patrons = new int[capacity];
+        this.borrowedAt = new long[capacity];
+        this.dueAt = new long[capacity];
+        this.nextFree = new int[capacity];
+        this.nextOfPatron = new int[capacity];
+        this.previousOfPatron = new int[capacity];
+        this.due = new DueHeap(capacity);
+        this.unreminded = new DueHeap(capacity);
+        // Twice the capacity keeps the live entries below the load factor, so the
+        // maps never grow, and compacting in place keeps the tombstones from
+        // rebuilding them into new arrays.
+        this.byIsbn = new LongIntMap(capacity * 2, true);
+        this.patronHeads = new LongIntMap(capacity * 2, true);
+
+        for (int slot = 0; slot < capacity; slot++) {
+            nextFree[slot] = slot + 1 < capacity ? slot + 1 : NONE;
+        }
+        this.freeHead = capacity > 0 ? 0 : NONE;
+    }
+
+    // Return the number of loans.
+    public int size() {
+        return size;
+    }
+
+    // Return the number of loans the ledger can hold.
+    public int capacity() {
+        return books.length;
+    }
+
+    // Checks if no more loans fit.
+    public boolean isFull() {
+        return freeHead == NONE;
+    }
+
+    // Record a loan, returning its slot or -1 when the ledger is full.
+    public int checkout(Book book, int patron, long borrowedTime, long dueTime) {
+        if (isFull()) {
+            return NONE;
+        }
+        int slot = freeHead;
+        freeHead = nextFree[slot];
+        highWater = Math.max(highWater, slot + 1);
+
+        books[slot] = book;
+        patrons[slot] = patron;
+        borrowedAt[slot] = borrowedTime;
+        dueAt[slot] = dueTime;
+        byIsbn.add(IsbnKeys.key(book.getIsbn()), slot);
+
+        int head = patronHeads.find(patron);
+        previousOfPatron[slot] = NONE;
+        nextOfPatron[slot] = head;
+        if (head == NONE) {
+            patronHeads.add(patron, slot);
+        } else {
+            previousOfPatron[head] = slot;
+            patronHeads.replace(patron, head, slot);
+        }
+        due.add(slot);
+        if (dueTime >= remindedBefore) {
+            unreminded.add(slot);
+        }
+        size++;
+        return slot;
+    }
+
+    // Return the slot of a loan of the book, or -1.
+    public int find(Book book) {
+        return byIsbn.find(IsbnKeys.key(book.getIsbn()), slot -> books[slot].equals(book));
+    }
+
+    // Close the loan in a slot and return its book.
+    public Book giveBack(int slot) {
+        Book book = books[slot];
+        int patron = patrons[slot];
+        byIsbn.remove(IsbnKeys.key(book.getIsbn()), slot);
+
+        int previous = previousOfPatron[slot];
+        int next = nextOfPatron[slot];
+        if (next != NONE) {
+            previousOfPatron[next] = previous;
+        }
+        if (previous != NONE) {
+            nextOfPatron[previous] = next;
+        } else if (next != NONE) {
+            patronHeads.replace(patron, slot, next);
+        } else {
+            patronHeads.remove(patron, slot);
+        }
+
+        due.remove(slot);
+        if (unreminded.contains(slot)) {
+            unreminded.remove(slot);
+        }
+
+        books[slot] = null;
+        nextFree[slot] = freeHead;
+        freeHead = slot;
+        size--;
+        return book;
+    }
+
+    // Return the book of a loan.
+    public Book book(int slot) {
+        return books[slot];
+    }
+
+    // Return the patron of a loan.
+    public int patron(int slot) {
+        return patrons[slot];
+    }
+
+    // Return when a loan started, in milliseconds since the epoch.
+    public long borrowedAt(int slot) {
+        return borrowedAt[slot];
+    }
+
+    // Return when a loan is due, in milliseconds since the epoch.
+    public long dueAt(int slot) {
+        return dueAt[slot];
+    }
+
+    // Pass the slot of every loan to the action.
+    public void forEach(IntConsumer action) {
+        for (int slot = 0; slot < highWater; slot++) {
+            if (books[slot] != null) {
+                action.accept(slot);
+            }
+        }
+    }
+
+    // Return a spliterator over the books on loan, reading the slots in place.
+    public Spliterator<Book> spliterator() {
+        return new IdRangeSpliterator(0, highWater, slot -> books[slot] != null, slot -> books[slot]);
+    }
+
+    // Pass the slot of every loan of a patron to the action, newest first.
+    public void forEachOfPatron(int patron, IntConsumer action) {
+        for (int slot = patronHeads.find(patron); slot != NONE; slot = nextOfPatron[slot]) {
+            action.accept(slot);
+        }
+    }
+
+    // Return when the loan due first is due, or Long.MAX_VALUE when nothing is on loan.
+    public long nextDue() {
+        return due.size == 0 ? Long.MAX_VALUE : dueAt[due.slots[0]];
+    }
+
+    // Pass the slot of every loan due before the given time to the action, in no
+    // particular order. It visits those loans and the children they have in the heap.
+    public void forEachDueBefore(long time, IntConsumer action) {
+        visitDue(0, time, action);
+    }
+
+    // Pass the slot of every loan due before the given time that no reminder has
+    // been taken for yet to the action, and count it as reminded.
+    public void takeDueBefore(long time, IntConsumer action) {
+        while (unreminded.size > 0 && dueAt[unreminded.slots[0]] < time) {
+            int slot = unreminded.slots[0];
+            unreminded.remove(slot);
+            action.accept(slot);
+        }
+        remindedBefore = Math.max(remindedBefore, time);
+    }
+
+    // Return the time before which every loan has been taken for a reminder.
+    public long remindedBefore() {
+        return remindedBefore;
+    }
+
+    // Count loans checked out from now on as reminded when they are due before the
+    // time, for loans moved in from a ledger that took its reminders up to there.
+    public void skipRemindersBefore(long time) {
+        remindedBefore = Math.max(remindedBefore, time);
+    }
+
+    // Walk down the heap from a place as long as the loans are due before the time.
+    private void visitDue(int position, long time, IntConsumer action) {
+        while (position < due.size) {
+            int slot = due.slots[position];
+            if (dueAt[slot] >= time) {
+                return;
+            }
+            action.accept(slot);
+            visitDue(2 * position + 1, time, action);
+            position = 2 * position + 2;
+        }
+    }
+
+    // Binary min-heap of slots on their due date. It remembers where each slot
+    // sits, so any loan can leave it in O(log n).
+    private final class DueHeap {
+        final int[] slots; // each due no earlier than its parent
+        final int[] positions; // slot to its place in slots, or NONE
+        int size;
+
+        DueHeap(int capacity) {
+            this.slots = new int[capacity];
+            this.positions = new int[capacity];
+            Arrays.fill(positions, NONE);
+        }
+
+        boolean contains(int slot) {
+            return positions[slot] != NONE;
+        }
+
+        void add(int slot) {
+            slots[size] = slot;
+            positions[slot] = size;
+            siftUp(size++);
+        }
+
+        // Fill the place of the slot with the last one in the heap, which may have
+        // to move either way from there.
+        void remove(int slot) {
+            int position = positions[slot];
+            positions[slot] = NONE;
+            size--;
+            if (position != size) {
+                slots[position] = slots[size];
+                positions[slots[position]] = position;
+                siftDown(siftUp(position));
+            }
+        }
+
+        // Move the slot at a place up past the loans due later, returning its new place.
+        private int siftUp(int position) {
+            int slot = slots[position];
+            long time = dueAt[slot];
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (dueAt[slots[parent]] <= time) {
+                    break;
+                }
+                slots[position] = slots[parent];
+                positions[slots[position]] = position;
+                position = parent;
+            }
+            slots[position] = slot;
+            positions[slot] = position;
+            return position;
+        }
+
+        // Move the slot at a place down past the loans due earlier.
+        private void siftDown(int position) {
+            int slot = slots[position];
+            long time = dueAt[slot];
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && dueAt[slots[child + 1]] < dueAt[slots[child]]) {
+                    child++;
+                }
+                if (dueAt[slots[child]] >= time) {
+                    break;
+                }
+                slots[position] = slots[child];
+                positions[slots[position]] = position;
+                position = child;
+            }
+            slots[position] = slot;
+            positions[slot] = position;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Reminders for loans as they fall due, sent in batches from a scheduled executor.
+// Every run takes the loans that fell due since the run before out of the
+// catalog, which pops them off a heap of the loans not reminded yet in the loan
+// ledger, and hands them to the Reminder once the catalog has let go, so
+// checkouts only wait while the new loans are taken out, never on a reminder
+// being sent. The first run also reminds of the loans that were overdue already.
+// Which loans were reminded is kept in memory only, so a catalog opened from a
+// snapshot reminds of its overdue loans once more.
+class LoanReminders implements Closeable {
+    private final Source source;
+    private final Reminder reminder;
+    private final ScheduledExecutorService scheduler;
+    private volatile Throwable lastFailure; // the last run that threw, or null
+
+    // A loan that fell due.
+    static final class Loan {
+        final Book book;
+        final int patron;
+        final long borrowedAt;
+        final long dueAt;
+
+        Loan(Book book, int patron, long borrowedAt, long dueAt) {
+            this.book = book;
+            this.patron = patron;
+            this.borrowedAt = borrowedAt;
+            this.dueAt = dueAt;
+        }
+
+        public String toString() {
+            return book + " lent to patron " + patron + ", due at " + dueAt;
+        }
+    }
+
+    // The catalog the loans are taken from. It is asked from the scheduler thread,
+    // so it has to be safe to update while other threads use it.
+    interface Source {
+        // Return the loans due before the time that no reminder was taken for yet,
+        // and count them as reminded.
+        List<Loan> takeLoansDueBefore(long time);
+    }
+
+    // Receives every batch of loans that fell due, on the scheduler thread.
+    interface Reminder {
+        void remind(List<Loan> loans);
+    }
+
+    // Look for loans that fell due every period, starting now.
+    public LoanReminders(Source source, Reminder reminder, long period, TimeUnit unit) {
+        this.source = source;
+        this.reminder = reminder;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "loan-reminders");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::remindDue, 0, period, unit);
+    }
+
+    // Stop looking for loans that fell due.
+    public void close() {
+        scheduler.shutdown();
+    }
+
+    // Return what the last failed run threw, or null when none failed.
+    public Throwable lastFailure() {
+        return lastFailure;
+    }
+
+    // Send the reminders for the loans that fell due since the last run. A run
+    // that throws is reported and recorded, and its loans are not sent again.
+    // Errors are caught as well, since anything thrown out of here would cancel
+    // the schedule for good without a word.
+    private void remindDue() {
+        try {
+            List<Loan> due = source.takeLoansDueBefore(System.currentTimeMillis());
+            if (!due.isEmpty()) {
+                reminder.remind(due);
+            }
+        } catch (Throwable e) {
+            lastFailure = e;
+            System.err.println("Loan reminders failed: " + e);
+        }
+    }
+}
\ No newline at end of file
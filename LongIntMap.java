@@ -0,0 +1,359 @@
+import java.io.IOException;
+import java.util.function.IntPredicate;
+
+// Open-addressed multimap from primitive long keys to int ids.
+// Keys and ids sit in parallel arrays, so a lookup never hashes a String or
+// calls equals. Several ids may share a key. Like IdIndex, removals leave
+// tombstones and growing or compacting the table is done incrementally.
+// A map made to compact in place clears its tombstones by rehashing within its
+// own arrays instead, so a map sized for its most entries never allocates.
+class LongIntMap {
+    private static final int EMPTY = 0;
+    private static final int TOMBSTONE = -1;
+    private static final double LOAD_FACTOR_THRESHOLD = 0.75;
+    private static final double TOMBSTONE_THRESHOLD = 0.2;
+    private static final int MIGRATION_STEP = 16;
+    private static final int RESIZE = 2;
+
+    private long[] keys;
+    private int[] values; // id + 1, EMPTY or TOMBSTONE
+    private long[] oldKeys; // table being drained by an incremental rebuild
+    private int[] oldValues;
+    private ProbeEngine probeEngine;
+    private ProbeEngine oldProbeEngine;
+    private int capacity;
+    private int size;
+    private int tombstones;
+    private final boolean compactInPlace;
+    private int migrationCursor;
+    private int resizes; // rebuilds that grew the table
+    private int compactions; // rebuilds that only cleared tombstones
+    private long rebuildNanos; // time spent moving entries into rebuilt tables
+
+    public LongIntMap(int capacity) {
+        this(capacity, false);
+    }
+
+    // A map that clears its tombstones in place when compactInPlace is set.
+    public LongIntMap(int capacity, boolean compactInPlace) {
+        this.compactInPlace = compactInPlace;
+        this.capacity = ProbeEngine.nextPrime(Math.max(capacity, 3));
+        this.keys = new long[this.capacity];
+        this.values = new int[this.capacity];
+        this.probeEngine = new ProbeEngine(this.capacity);
+    }
+
+    // Read a map written by writeTo.
+    public LongIntMap(SnapshotReader in) {
+        this.capacity = in.getInt();
+        this.size = in.getInt();
+        this.tombstones = in.getInt();
+        this.compactInPlace = false;
+        this.keys = in.getLongs(capacity);
+        this.values = in.getInts(capacity);
+        this.probeEngine = new ProbeEngine(capacity);
+    }
+
+    // Write the map for a snapshot, finishing any rebuild first.
+    public void writeTo(SnapshotWriter out) throws IOException {
+        finishRebuild();
+        out.putInt(capacity);
+        out.putInt(size);
+        out.putInt(tombstones);
+        out.putLongs(keys, 0, capacity);
+        out.putInts(values, 0, capacity);
+    }
+
+    // Grow the table up front so the given number of ids fit under the load factor,
+    // moving every entry at once instead of rebuilding several times on the way.
+    public void ensureCapacity(int entries) {
+        int needed = (int) Math.min(Integer.MAX_VALUE / 2, (long) (entries / LOAD_FACTOR_THRESHOLD) + 1);
+
+        if (needed > capacity) {
+            migrateSlots(Integer.MAX_VALUE);
+            startRebuild(ProbeEngine.nextPrime(needed));
+            migrateSlots(Integer.MAX_VALUE);
+        }
+    }
+
+    // Drain whatever an incremental rebuild has left in the old table.
+    public void finishRebuild() {
+        migrateSlots(Integer.MAX_VALUE);
+    }
+
+    // Return the capacity of the table.
+    public int capacity() {
+        return capacity;
+    }
+
+    // Return the number of ids in the map.
+    public int size() {
+        return size;
+    }
+
+    // Return the share of table slots holding a tombstone.
+    public double tombstoneRatio() {
+        return (double) tombstones / capacity;
+    }
+
+    // Checks if an incremental rebuild is still draining the old table.
+    public boolean isRebuilding() {
+        return oldValues != null;
+    }
+
+    // Return how many probes the operations needed, bucketed by probe count.
+    public long[] probeHistogram() {
+        return probeEngine.probeHistogram();
+    }
+
+    // Return how many times the table has grown.
+    public int resizes() {
+        return resizes;
+    }
+
+    // Return how many times the table was rebuilt to clear tombstones.
+    public int compactions() {
+        return compactions;
+    }
+
+    // Return the nanoseconds spent moving entries during rebuilds.
+    public long rebuildNanos() {
+        return rebuildNanos;
+    }
+
+    // Add an id under a key.
+    public void add(long key, int id) {
+        migrateSlots(MIGRATION_STEP);
+
+        if (compactInPlace && tombstones > 0 && (double) (size + tombstones) / capacity >= LOAD_FACTOR_THRESHOLD) {
+            compactInPlace();
+        }
+        if ((double) (size + tombstones) / capacity >= LOAD_FACTOR_THRESHOLD) {
+            migrateSlots(Integer.MAX_VALUE);
+            startRebuild(ProbeEngine.nextPrime(capacity * RESIZE));
+        }
+        if (insert(keys, values, key, id, probeEngine)) {
+            tombstones--;
+        }
+        size++;
+    }
+
+    // Remove an id from a key.
+    public boolean remove(long key, int id) {
+        migrateSlots(MIGRATION_STEP);
+
+        int slot = slotOf(keys, values, probeEngine, key, id);
+        if (slot >= 0) {
+            values[slot] = TOMBSTONE;
+            tombstones++;
+        } else if (isRebuilding() && (slot = slotOf(oldKeys, oldValues, oldProbeEngine, key, id)) >= 0) {
+            oldValues[slot] = TOMBSTONE;
+        } else {
+            return false;
+        }
+        size--;
+
+        if (!isRebuilding() && tombstoneRatio() >= TOMBSTONE_THRESHOLD) {
+            if (compactInPlace) {
+                compactInPlace();
+            } else {
+                startRebuild(capacity);
+            }
+        }
+        return true;
+    }
+
+    // Swap the id stored under a key for another one in place, without leaving a tombstone.
+    public boolean replace(long key, int id, int newId) {
+        int slot = slotOf(keys, values, probeEngine, key, id);
+        if (slot >= 0) {
+            values[slot] = newId + 1;
+            return true;
+        }
+
+        if (isRebuilding() && (slot = slotOf(oldKeys, oldValues, oldProbeEngine, key, id)) >= 0) {
+            oldValues[slot] = newId + 1;
+            return true;
+        }
+        return false;
+    }
+
+    // Return the first id stored under the key, or -1.
+    public int find(long key) {
+        return find(key, null);
+    }
+
+    // Return the first id stored under the key that the filter accepts, or -1.
+    public int find(long key, IntPredicate filter) {
+        int id = find(keys, values, probeEngine, key, filter);
+
+        if (id < 0 && isRebuilding()) {
+            id = find(oldKeys, oldValues, oldProbeEngine, key, filter);
+        }
+        return id;
+    }
+
+    private static int find(long[] keys, int[] values, ProbeEngine engine, long key, IntPredicate filter) {
+        int hash = hash(key);
+        int index = engine.home(hash);
+        int step = engine.step(hash);
+
+        for (int probes = 1; probes <= values.length; probes++) {
+            int value = values[index];
+
+            if (value == EMPTY) {
+                engine.record(probes);
+                return -1;
+            }
+
+            else if (value != TOMBSTONE && keys[index] == key && (filter == null || filter.test(value - 1))) {
+                engine.record(probes);
+                return value - 1;
+            }
+            index = engine.next(index, step);
+        }
+        return -1;
+    }
+
+    // Find the slot holding the id under the key, or -1.
+    private static int slotOf(long[] keys, int[] values, ProbeEngine engine, long key, int id) {
+        int hash = hash(key);
+        int index = engine.home(hash);
+        int step = engine.step(hash);
+
+        for (int probes = 1; probes <= values.length; probes++) {
+            int value = values[index];
+
+            if (value == EMPTY) {
+                return -1;
+            }
+
+            else if (value == id + 1 && keys[index] == key) {
+                return index;
+            }
+            index = engine.next(index, step);
+        }
+        return -1;
+    }
+
+    // Spread a key over an int for the probing engine.
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    // Put an entry in the first empty or tombstone slot of its probe sequence.
+    // Returns true when a tombstone was taken.
+    private static boolean insert(long[] keys, int[] values, long key, int id, ProbeEngine engine) {
+        int hash = hash(key);
+        int index = engine.home(hash);
+        int step = engine.step(hash);
+        int probes = 1;
+
+        while (values[index] != EMPTY && values[index] != TOMBSTONE) {
+            index = engine.next(index, step);
+            probes++;
+        }
+        boolean reused = values[index] == TOMBSTONE;
+        keys[index] = key;
+        values[index] = id + 1;
+        engine.record(probes);
+        return reused;
+    }
+
+    // Clear every tombstone by rehashing the entries within the same arrays.
+    // Live entries are first marked as unplaced, stored as -(id + 1) - 1, which
+    // is below TOMBSTONE. Each unplaced entry is then taken out and put in the
+    // first slot of its probe sequence that is empty or holds another unplaced
+    // entry, which is picked up and placed the same way in turn. Placed entries
+    // never move again, so every one stays reachable from its home slot.
+    private void compactInPlace() {
+        long start = System.nanoTime();
+        for (int slot = 0; slot < capacity; slot++) {
+            int value = values[slot];
+            if (value == TOMBSTONE) {
+                values[slot] = EMPTY;
+            } else if (value != EMPTY) {
+                values[slot] = -value - 1;
+            }
+        }
+        tombstones = 0;
+
+        for (int slot = 0; slot < capacity; slot++) {
+            if (values[slot] >= TOMBSTONE) {
+                continue;
+            }
+            long key = keys[slot];
+            int value = -values[slot] - 1;
+            values[slot] = EMPTY;
+
+            while (true) {
+                int hash = hash(key);
+                int index = probeEngine.home(hash);
+                int step = probeEngine.step(hash);
+                while (values[index] > EMPTY) {
+                    index = probeEngine.next(index, step);
+                }
+                int displaced = values[index];
+                long displacedKey = keys[index];
+                keys[index] = key;
+                values[index] = value;
+                if (displaced == EMPTY) {
+                    break;
+                }
+                key = displacedKey;
+                value = -displaced - 1;
+            }
+        }
+        compactions++;
+        rebuildNanos += System.nanoTime() - start;
+    }
+
+    // Start rebuilding into a fresh table of the given capacity.
+    // The old table is drained a few slots per operation by migrateSlots.
+    private void startRebuild(int newCapacity) {
+        if (newCapacity > capacity) {
+            resizes++;
+        } else {
+            compactions++;
+        }
+        oldKeys = keys;
+        oldValues = values;
+        oldProbeEngine = probeEngine;
+        migrationCursor = 0;
+
+        keys = new long[newCapacity];
+        values = new int[newCapacity];
+        probeEngine = probeEngine.resize(newCapacity);
+        capacity = newCapacity;
+        tombstones = 0;
+    }
+
+    // Move the next live entries of the old table into the current one.
+    // Moved entries leave a tombstone so lookups in the old table cannot see them twice.
+    private void migrateSlots(int count) {
+        if (!isRebuilding()) {
+            return;
+        }
+        long start = System.nanoTime();
+        int end = (int) Math.min((long) migrationCursor + count, oldValues.length);
+
+        for (; migrationCursor < end; migrationCursor++) {
+            int value = oldValues[migrationCursor];
+
+            if (value != EMPTY && value != TOMBSTONE) {
+                if (insert(keys, values, oldKeys[migrationCursor], value - 1, probeEngine)) {
+                    tombstones--;
+                }
+                oldValues[migrationCursor] = TOMBSTONE;
+            }
+        }
+
+        if (migrationCursor == oldValues.length) {
+            oldKeys = null;
+            oldValues = null;
+            oldProbeEngine = null;
+        }
+        rebuildNanos += System.nanoTime() - start;
+    }
+}
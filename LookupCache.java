@@ -0,0 +1,325 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// Read-through cache of title, author and ISBN lookups, for catalogs where a few
+// books take most of the traffic. Misses are cached as well.
+// Entries sit in sets of WAYS slots picked by the key hash. Every set has a tag
+// word with a byte per slot, zero for a free slot and otherwise the top bits of
+// the hash, so a hit compares all eight tags at once with a few arithmetic
+// operations and reads the one entry they point at, with no lock. Which keys
+// stay in a full set is decided TinyLFU style: a count-min sketch of 4-bit
+// counters estimates how often each key is asked for, a new key only replaces
+// the less frequent of two random entries of its set when it is asked for more
+// often, and the counters are halved now and then so old popularity fades. The sketch is fed one lookup in SAMPLE_RATE,
+// which keeps shared writes off most hits; the hit count comes from the same sample.
+//
+// Every set has a version for each of WAYS stripes of the hashes that map to
+// it, and every entry the version it was looked up under. A writer that changed
+// the books of a key only bumps the version of its stripe, which outdates the
+// entries of that stripe without touching them, about one besides the key's own.
+// Readers only trust entries of the current version, so a result looked up
+// before a change and stored after it is never served, and outdated entries are
+// the first to be replaced.
+class LookupCache {
+    private static final int TITLE = 0;
+    private static final int AUTHOR = 1;
+    private static final int ISBN = 2;
+    private static final int WAYS = 8;
+    private static final int SAMPLE_RATE = 8;
+    private static final int ENTRY_BYTES = 64; // entry, slot and key String, the chars come on top
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final AtomicLongArray tags; // per set, a hint checked against the entries
+    private final AtomicIntegerArray versions; // per set, one for each stripe of hashes
+    private final int setMask;
+    private final FrequencySketch sketch;
+    private final long maxBytes;
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder(); // estimated from the sample
+    private final LongAdder misses = new LongAdder();
+
+    // A cache of at most maxEntries lookups.
+    public LookupCache(int maxEntries) {
+        this(maxEntries, Long.MAX_VALUE);
+    }
+
+    // A cache of at most maxEntries lookups whose entries take at most maxBytes.
+    public LookupCache(int maxEntries, long maxBytes) {
+        int sets = 1;
+        while (sets * WAYS < maxEntries) {
+            sets <<= 1;
+        }
+        this.entries = new AtomicReferenceArray<>(sets * WAYS);
+        this.tags = new AtomicLongArray(sets);
+        this.versions = new AtomicIntegerArray(sets * WAYS);
+        this.setMask = sets - 1;
+        this.sketch = new FrequencySketch(sets * WAYS);
+        this.maxBytes = maxBytes;
+    }
+
+    // Return the book with the title, from the cache or else from the lookup.
+    public Book title(String title, Function<String, Book> lookup) {
+        return get(TITLE, title, hash(TITLE, title.hashCode()), lookup);
+    }
+
+    // Return the book by the author, from the cache or else from the lookup.
+    public Book author(String author, Function<String, Book> lookup) {
+        return get(AUTHOR, author, hash(AUTHOR, author.hashCode()), lookup);
+    }
+
+    // Return the book with the ISBN, from the cache or else from the lookup.
+    // Every spelling of an ISBN hashes alike, so a change to the book reaches all of them.
+    public Book isbn(String isbn, Function<String, Book> lookup) {
+        return get(ISBN, isbn, isbnHash(isbn), lookup);
+    }
+
+    // Drop every cached lookup the book could answer. Call it after the catalog
+    // has added or dropped the book, never before.
+    public void invalidate(Book book) {
+        invalidate(hash(TITLE, book.getTitle().hashCode()));
+        invalidate(hash(AUTHOR, book.getAuthor().hashCode()));
+        invalidate(isbnHash(book.getIsbn()));
+    }
+
+    // Return the estimated number of lookups answered from the cache.
+    public long hits() {
+        return hits.sum();
+    }
+
+    // Return the number of lookups that went through to the catalog.
+    public long misses() {
+        return misses.sum();
+    }
+
+    // Return the share of lookups answered from the cache.
+    public double hitRate() {
+        long hits = hits();
+        long lookups = hits + misses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    // Return the estimated bytes held by the entries.
+    public long bytes() {
+        return bytes.get();
+    }
+
+    private Book get(int kind, String key, int hash, Function<String, Book> lookup) {
+        int set = hash & setMask;
+        int version = versions.get(stripe(hash));
+        boolean sampled = (ThreadLocalRandom.current().nextInt() & (SAMPLE_RATE - 1)) == 0;
+
+        for (long matches = matches(tags.get(set), hash); matches != 0; matches &= matches - 1) {
+            Entry entry = entries.get(set * WAYS + (Long.numberOfTrailingZeros(matches) >>> 3));
+            if (entry != null && entry.hash == hash && entry.version == version && entry.kind == kind
+                    && entry.key.equals(key)) {
+                if (sampled) {
+                    hits.add(SAMPLE_RATE);
+                    sketch.increment(hash);
+                }
+                return entry.book;
+            }
+        }
+
+        misses.increment();
+        if (sampled) {
+            sketch.increment(hash);
+        }
+        Book book = lookup.apply(key);
+        admit(set, kind, key, hash, book, version, sampled);
+        return book;
+    }
+
+    // Store a lookup in its set: in a free slot if there is one, otherwise over
+    // the less frequent of two random entries, if the new one is more frequent.
+    // An outdated entry is always replaced. A full set only weighs the sampled
+    // misses, the ones the sketch has counted, which keeps it off most misses.
+    // A slot changed by another thread in between is left alone.
+    private void admit(int set, int kind, String key, int hash, Book book, int version, boolean sampled) {
+        int way;
+        Entry victim;
+        long free = ~tags.get(set) & HIGH_BITS;
+        if (free == 0 && !sampled) {
+            return;
+        }
+        if (free != 0) {
+            way = Long.numberOfTrailingZeros(free) >>> 3;
+            victim = entries.get(set * WAYS + way);
+        } else {
+            int frequency = sketch.frequency(hash);
+            if (frequency == 0) {
+                return; // never seen before, so it cannot beat any entry
+            }
+            int choices = ThreadLocalRandom.current().nextInt();
+            int first = choices & (WAYS - 1);
+            int second = (choices >>> 3) & (WAYS - 1);
+            way = first;
+            victim = entries.get(set * WAYS + first);
+            Entry other = entries.get(set * WAYS + second);
+            if (victim != null && isCurrent(victim)
+                    && (other == null || !isCurrent(other)
+                            || sketch.frequency(other.hash) < sketch.frequency(victim.hash))) {
+                way = second;
+                victim = other;
+            }
+            if (victim != null && isCurrent(victim) && frequency <= sketch.frequency(victim.hash)) {
+                return;
+            }
+        }
+
+        Entry candidate = new Entry(kind, key, hash, book, version);
+        long growth = candidate.bytes - (victim == null ? 0 : victim.bytes);
+        if (growth > 0 && bytes.get() + growth > maxBytes) {
+            return;
+        }
+        if (entries.compareAndSet(set * WAYS + way, victim, candidate)) {
+            bytes.addAndGet(growth);
+            retag(set, way);
+        }
+    }
+
+    // Move the stripe of a hash to a new version, which outdates its entries.
+    // Entries stored under an older version stay outdated, whoever stored them.
+    private void invalidate(int hash) {
+        versions.incrementAndGet(stripe(hash));
+    }
+
+    // Checks if an entry was looked up under the current version of its stripe.
+    private boolean isCurrent(Entry entry) {
+        return entry.version == versions.get(stripe(entry.hash));
+    }
+
+    // Return the version slot of a hash: its set, and three bits below the tag.
+    private int stripe(int hash) {
+        return (hash & setMask) * WAYS + ((hash >>> 22) & (WAYS - 1));
+    }
+
+    // Point the tag byte of a slot at the entry now in it.
+    private void retag(int set, int way) {
+        int shift = way * 8;
+        while (true) {
+            long word = tags.get(set);
+            Entry entry = entries.get(set * WAYS + way);
+            long tag = entry == null ? 0 : tag(entry.hash);
+            long updated = word & ~(0xffL << shift) | tag << shift;
+            if (updated == word || tags.compareAndSet(set, word, updated)) {
+                return;
+            }
+        }
+    }
+
+    // Return the high bit of every tag byte equal to the tag of the hash. The byte
+    // above a match may show up too, which the entry check sorts out.
+    private static long matches(long tags, int hash) {
+        long difference = tags ^ tag(hash) * LOW_BITS;
+        return (difference - LOW_BITS) & ~difference & HIGH_BITS;
+    }
+
+    // The tag byte of a hash: its top seven bits, with the high bit set so no tag is zero.
+    private static long tag(int hash) {
+        return (hash >>> 25) | 0x80;
+    }
+
+    // Spread a key hash so the low bits pick the set, keeping kinds apart.
+    private static int hash(int kind, int hash) {
+        hash = (hash + kind * 0x61c88647) * 0x9e3779b1;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int isbnHash(String isbn) {
+        long key = IsbnKeys.key(isbn);
+        return hash(ISBN, (int) (key ^ (key >>> 32)));
+    }
+
+    private static final class Entry {
+        final int kind;
+        final String key;
+        final int hash;
+        final Book book; // null for a cached miss
+        final int version;
+        final int bytes;
+
+        Entry(int kind, String key, int hash, Book book, int version) {
+            this.kind = kind;
+            this.key = key;
+            this.hash = hash;
+            this.book = book;
+            this.version = version;
+            this.bytes = ENTRY_BYTES + key.length() * 2;
+        }
+    }
+
+    // Count-min sketch of 4-bit counters, sixteen to a long, four rows. The four
+    // counters of a key are in one block of BLOCK longs, so a key costs one cache line.
+    // Concurrent updates may be lost, which only blurs the estimates.
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = { 0x97cb3127, 0xb4b82e3d, 0x8a3a6fdb, 0xc2b2ae35 };
+        private static final long HALF_MASK = 0x7777777777777777L;
+        private static final int BLOCK = 8;
+
+        private final long[] table;
+        private final int blockMask;
+        private final int resetAfter;
+        private int additions;
+
+        FrequencySketch(int entries) {
+            int blocks = 1;
+            while (blocks * BLOCK < entries) {
+                blocks <<= 1;
+            }
+            this.table = new long[blocks * BLOCK];
+            this.blockMask = blocks - 1;
+            this.resetAfter = entries * 10;
+        }
+
+        void increment(int hash) {
+            int block = (hash >>> 16 ^ hash * 0x9e3779b1) & blockMask;
+            boolean added = false;
+            for (int row = 0; row < SEEDS.length; row++) {
+                int counter = counter(hash, row);
+                int index = block * BLOCK + (counter & (BLOCK - 1));
+                int shift = (counter >>> 3 & 15) << 2;
+                long word = table[index];
+                if (((word >>> shift) & 15) < 15) {
+                    table[index] = word + (1L << shift);
+                    added = true;
+                }
+            }
+            if (added && ++additions >= resetAfter) {
+                reset();
+            }
+        }
+
+        int frequency(int hash) {
+            int block = (hash >>> 16 ^ hash * 0x9e3779b1) & blockMask;
+            int frequency = 15;
+            for (int row = 0; row < SEEDS.length; row++) {
+                int counter = counter(hash, row);
+                long word = table[block * BLOCK + (counter & (BLOCK - 1))];
+                frequency = Math.min(frequency, (int) (word >>> ((counter >>> 3 & 15) << 2)) & 15);
+            }
+            return frequency;
+        }
+
+        // Halve every counter, so keys that were popular long ago lose their weight.
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & HALF_MASK;
+            }
+            additions = 0;
+        }
+
+        // Pick a counter of the block for a row: the low three bits choose the long,
+        // the next four the nibble.
+        private int counter(int hash, int row) {
+            int mixed = hash * SEEDS[row];
+            return mixed ^ (mixed >>> 17);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntFunction;
+
+// Catalog records left in the mapped record section of a snapshot file.
+// A book is only decoded when it is first asked for, so opening a snapshot
+// does not touch the records, and the mapped pages are shared by every
+// process that opens the same file.
+//
+// Section layout: record count, then every record as title, author and isbn
+// strings followed by the edition, then one int offset per id (-1 for a free id).
+class MappedRecords {
+    private final ByteBuffer section;
+    private final int count;
+    private final int offsetsStart;
+
+    public MappedRecords(ByteBuffer section) {
+        this.section = section.order(ByteOrder.LITTLE_ENDIAN);
+        this.count = section.getInt(0);
+        this.offsetsStart = section.capacity() - count * 4;
+    }
+
+    // Return the number of ids the section covers.
+    public int size() {
+        return count;
+    }
+
+    // Return the book stored under an id, or null when the id was free.
+    public Book book(int id) {
+        if (id >= count) {
+            return null;
+        }
+        int at = section.getInt(offsetsStart + id * 4);
+        if (at < 0) {
+            return null;
+        }
+        String title = string(at);
+        at += 4 + section.getInt(at);
+        String author = string(at);
+        at += 4 + section.getInt(at);
+        String isbn = string(at);
+        at += 4 + section.getInt(at);
+        return new Book(title, author, isbn, section.getInt(at));
+    }
+
+    // Write the record section for ids 0 to count - 1.
+    public static void write(SnapshotWriter out, int count, IntFunction<Book> records) throws IOException {
+        long start = out.position();
+        int[] offsets = new int[count];
+        out.putInt(count);
+
+        for (int id = 0; id < count; id++) {
+            Book book = records.apply(id);
+            if (book == null) {
+                offsets[id] = -1;
+                continue;
+            }
+            long offset = out.position() - start;
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Record section is larger than 2 GB");
+            }
+            offsets[id] = (int) offset;
+            out.putString(book.getTitle());
+            out.putString(book.getAuthor());
+            out.putString(book.getIsbn());
+            out.putInt(book.getEdition());
+        }
+        out.putInts(offsets, 0, count);
+    }
+
+    private String string(int at) {
+        byte[] bytes = new byte[section.getInt(at)];
+        section.get(at + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+// Multi-valued index from a String key to the posting list of record ids filed under it.
+// Distinct keys get a dense ordinal, found through an IdIndex, and every ordinal owns
+// one PostingList.
+class PostingIndex {
+    private final IdIndex ordinals;
+    private String[] keys;
+    private PostingList[] postings;
+    private int keyCount; // ordinals handed out so far
+    private int[] freeOrdinals;
+    private int freeOrdinalCount;
+
+    public PostingIndex(int capacity) {
+        this.keys = new String[16];
+        this.postings = new PostingList[16];
+        this.freeOrdinals = new int[16];
+        this.ordinals = new IdIndex(capacity, ordinal -> keys[ordinal]);
+    }
+
+    // Read an index written by writeTo.
+    public PostingIndex(SnapshotReader in) {
+        this.ordinals = new IdIndex(in, ordinal -> keys[ordinal]);
+        this.keyCount = in.getInt();
+        this.freeOrdinalCount = in.getInt();
+        this.freeOrdinals = in.getInts(Math.max(freeOrdinalCount, 16));
+        this.keys = new String[Math.max(keyCount, 16)];
+        this.postings = new PostingList[keys.length];
+
+        for (int ordinal = 0; ordinal < keyCount; ordinal++) {
+            keys[ordinal] = in.getString();
+            if (keys[ordinal] != null) {
+                postings[ordinal] = new PostingList(in);
+            }
+        }
+    }
+
+    // Write the index for a snapshot.
+    public void writeTo(SnapshotWriter out) throws IOException {
+        ordinals.writeTo(out);
+        out.putInt(keyCount);
+        out.putInt(freeOrdinalCount);
+        out.putInts(freeOrdinals, 0, Math.max(freeOrdinalCount, 16));
+
+        for (int ordinal = 0; ordinal < keyCount; ordinal++) {
+            out.putString(keys[ordinal]);
+            if (keys[ordinal] != null) {
+                postings[ordinal].writeTo(out);
+            }
+        }
+    }
+
+    // Make room for the given number of distinct keys.
+    public void ensureCapacity(int keyCapacity) {
+        ordinals.ensureCapacity(keyCapacity);
+
+        if (keys.length < keyCapacity) {
+            keys = Arrays.copyOf(keys, keyCapacity);
+            postings = Arrays.copyOf(postings, keyCapacity);
+        }
+    }
+
+    // Return the number of distinct keys.
+    public int keys() {
+        return ordinals.size();
+    }
+
+    // Return the capacity of the key table.
+    public int capacity() {
+        return ordinals.capacity();
+    }
+
+    // Return how many probes the key lookups needed, bucketed by probe count.
+    public long[] probeHistogram() {
+        return ordinals.probeHistogram();
+    }
+
+    // Checks if an incremental rebuild is still draining the key table.
+    public boolean isRebuilding() {
+        return ordinals.isRebuilding();
+    }
+
+    // Return how many times the key table has grown.
+    public int resizes() {
+        return ordinals.resizes();
+    }
+
+    // Return how many times the key table was rebuilt to clear tombstones.
+    public int compactions() {
+        return ordinals.compactions();
+    }
+
+    // Return the nanoseconds spent moving keys during rebuilds.
+    public long rebuildNanos() {
+        return ordinals.rebuildNanos();
+    }
+
+    // File the id under the key.
+    public void add(String key, int id) {
+        int ordinal = ordinals.find(key);
+
+        if (ordinal < 0) {
+            ordinal = allocateOrdinal();
+            keys[ordinal] = key;
+            postings[ordinal] = new PostingList();
+            ordinals.add(ordinal, key.hashCode());
+        }
+        postings[ordinal].add(id);
+    }
+
+    // Take the id off the key, dropping the key when nothing is left under it.
+    public boolean remove(String key, int id) {
+        int ordinal = ordinals.find(key);
+
+        if (ordinal < 0 || !postings[ordinal].remove(id)) {
+            return false;
+        }
+
+        if (postings[ordinal].isEmpty()) {
+            ordinals.remove(ordinal, key.hashCode());
+            keys[ordinal] = null;
+            postings[ordinal] = null;
+
+            if (freeOrdinalCount == freeOrdinals.length) {
+                freeOrdinals = Arrays.copyOf(freeOrdinals, freeOrdinals.length * 2);
+            }
+            freeOrdinals[freeOrdinalCount++] = ordinal;
+        }
+        return true;
+    }
+
+    // Return the posting list of a key, or null when nothing is filed under it.
+    public PostingList get(String key) {
+        int ordinal = ordinals.find(key);
+        return ordinal < 0 ? null : postings[ordinal];
+    }
+
+    private int allocateOrdinal() {
+        if (freeOrdinalCount > 0) {
+            return freeOrdinals[--freeOrdinalCount];
+        }
+
+        if (keyCount == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+            postings = Arrays.copyOf(postings, postings.length * 2);
+        }
+        return keyCount++;
+    }
+}
@@ -0,0 +1,466 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+// Sorted set of record ids kept in primitive arrays.
+// Small lists live in a plain int[] tail. Once the tail fills up it is sealed
+// into blocks of variable-byte encoded deltas, so large lists cost one or two
+// bytes per id instead of four. Removing a sealed id rewrites its block in
+// place, which never grows it; the bytes it frees stay unused until dead bytes
+// make up half of the blocks, and then all of them are packed again.
+class PostingList {
+    private static final int TAIL_LIMIT = 64;
+    private static final int BLOCK_SIZE = 128;
+
+    private int[] tail = new int[4]; // sorted ids not sealed yet
+    private int tailCount;
+    private byte[] packed = new byte[0]; // blocks of deltas, each block starts from blockFirst
+    private int packedLength;
+    private int[] blockFirst = new int[0];
+    private int[] blockOffset = new int[0];
+    private int[] blockCount = new int[0];
+    private int blocks;
+    private int packedCount;
+    private int lastPacked; // largest sealed id
+    private int deadBytes; // bytes freed inside the blocks by removals
+
+    public PostingList() {
+    }
+
+    // Read a list written by writeTo, blocks and all, without decoding it.
+    public PostingList(SnapshotReader in) {
+        tailCount = in.getInt();
+        tail = in.getInts(Math.max(tailCount, 4));
+        blocks = in.getInt();
+        packedCount = in.getInt();
+        lastPacked = in.getInt();
+        blockFirst = in.getInts(blocks);
+        blockOffset = in.getInts(blocks);
+        blockCount = in.getInts(blocks);
+        packedLength = in.getInt();
+        packed = in.getBytes(packedLength);
+    }
+
+    // Write the list for a snapshot in its packed form.
+    public void writeTo(SnapshotWriter out) throws IOException {
+        out.putInt(tailCount);
+        out.putInts(tail, 0, Math.max(tailCount, 4));
+        out.putInt(blocks);
+        out.putInt(packedCount);
+        out.putInt(lastPacked);
+        out.putInts(blockFirst, 0, blocks);
+        out.putInts(blockOffset, 0, blocks);
+        out.putInts(blockCount, 0, blocks);
+        out.putInt(packedLength);
+        out.putBytes(packed, 0, packedLength);
+    }
+
+    // Return the number of ids in the list.
+    public int size() {
+        return packedCount + tailCount;
+    }
+
+    // Checks if the list holds no id.
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Return the smallest id, or -1 when the list is empty, without decoding anything.
+    public int first() {
+        if (blocks == 0) {
+            return tailCount == 0 ? -1 : tail[0];
+        }
+        return tailCount == 0 ? blockFirst[0] : Math.min(tail[0], blockFirst[0]);
+    }
+
+    // Return the number of bytes the list occupies in its arrays.
+    public long footprint() {
+        return (long) tail.length * 4 + packed.length + (long) blockFirst.length * 12;
+    }
+
+    // Checks if the list holds the id.
+    public boolean contains(int id) {
+        if (Arrays.binarySearch(tail, 0, tailCount, id) >= 0) {
+            return true;
+        }
+        int block = blockOf(id);
+        if (block < 0) {
+            return false;
+        }
+        // Walk the deltas in place instead of decoding the block.
+        int value = blockFirst[block];
+        int offset = blockOffset[block];
+        for (int i = 1; i < blockCount[block] && value < id; i++) {
+            value += readDelta(offset);
+            offset = skipDelta(offset);
+        }
+        return value == id;
+    }
+
+    // Add an id, ignoring it when it is already present.
+    public void add(int id) {
+        int position = Arrays.binarySearch(tail, 0, tailCount, id);
+        if (position >= 0 || (blocks > 0 && id <= lastPacked && contains(id))) {
+            return;
+        }
+        position = -position - 1;
+
+        if (tailCount == tail.length) {
+            tail = Arrays.copyOf(tail, tail.length * 2);
+        }
+        System.arraycopy(tail, position, tail, position + 1, tailCount - position);
+        tail[position] = id;
+        tailCount++;
+
+        if (tailCount > TAIL_LIMIT) {
+            seal();
+        }
+    }
+
+    // Remove an id, returning whether it was present.
+    public boolean remove(int id) {
+        int position = Arrays.binarySearch(tail, 0, tailCount, id);
+        if (position >= 0) {
+            System.arraycopy(tail, position + 1, tail, position, tailCount - position - 1);
+            tailCount--;
+            return true;
+        }
+
+        int block = blockOf(id);
+        if (block < 0) {
+            return false;
+        }
+
+        // Find the id, and the bytes of the delta that leads to it and of the one after it.
+        int count = blockCount[block];
+        int previous = 0;
+        int value = blockFirst[block];
+        int at = blockOffset[block]; // start of the delta leading to value
+        int next = at; // start of the delta after value
+        int i = 0;
+        while (value < id && i + 1 < count) {
+            previous = value;
+            at = next;
+            value += readDelta(at);
+            next = skipDelta(at);
+            i++;
+        }
+        if (value != id) {
+            return false;
+        }
+        int end = next;
+        for (int rest = i + 1; rest < count; rest++) {
+            end = skipDelta(end);
+        }
+
+        if (count == 1) {
+            dropBlock(block);
+        } else {
+            int written;
+            int after; // first byte kept behind the rewritten part
+            if (i == 0) {
+                // The next id becomes the start of the block, its delta goes.
+                blockFirst[block] = id + readDelta(next);
+                after = skipDelta(next);
+                written = at;
+            } else if (i + 1 < count) {
+                // The deltas around the id merge into one, which is never longer than the two.
+                after = skipDelta(next);
+                written = writeDeltaAt(at, (value - previous) + readDelta(next));
+            } else {
+                after = end;
+                written = at;
+            }
+            System.arraycopy(packed, after, packed, written, end - after);
+            deadBytes += after - written;
+            blockCount[block]--;
+            packedCount--;
+            if (block == blocks - 1 && i == count - 1) {
+                lastPacked = previous;
+            }
+        }
+
+        if (deadBytes > packedLength / 2) {
+            repack(packedIds(), packedCount);
+        }
+        return true;
+    }
+
+    // Pass every id to the action in ascending order.
+    public void forEach(IntConsumer action) {
+        PrimitiveIterator.OfInt ids = iterator();
+        while (ids.hasNext()) {
+            action.accept(ids.nextInt());
+        }
+    }
+
+    // Return the ids in ascending order.
+    public int[] toArray() {
+        int[] ids = new int[size()];
+        int[] at = new int[1];
+        forEach(id -> ids[at[0]++] = id);
+        return ids;
+    }
+
+    // Return an iterator over the ids in ascending order, merging the blocks with the tail.
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int block;
+            private int inBlock;
+            private int offset;
+            private int previous;
+            private int tailAt;
+            private final int[] tailIds = Arrays.copyOf(tail, tailCount);
+            private final int blockTotal = blocks;
+
+            public boolean hasNext() {
+                return block < blockTotal || tailAt < tailIds.length;
+            }
+
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (block < blockTotal && inBlock == 0) {
+                    offset = blockOffset[block];
+                    previous = blockFirst[block];
+                }
+                int packedId = block < blockTotal ? peekPacked() : Integer.MAX_VALUE;
+
+                if (tailAt < tailIds.length && tailIds[tailAt] < packedId) {
+                    return tailIds[tailAt++];
+                }
+                advancePacked();
+                return packedId;
+            }
+
+            private int peekPacked() {
+                return inBlock == 0 ? previous : previous + readDelta(offset);
+            }
+
+            private void advancePacked() {
+                if (inBlock > 0) {
+                    previous += readDelta(offset);
+                    offset = skipDelta(offset);
+                }
+                if (++inBlock == blockCount[block]) {
+                    inBlock = 0;
+                    block++;
+                }
+            }
+        };
+    }
+
+    // Return a cursor for testing ids in ascending order.
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    // Forward-only membership test. Ids must be asked for in ascending order, which
+    // lets the cursor resume where the last test stopped and skip whole blocks,
+    // instead of searching the list from the start like contains does.
+    class Cursor {
+        private int block;
+        private int inBlock;
+        private int offset;
+        private int value; // id at the cursor in the current block
+        private int tailAt;
+
+        Cursor() {
+            if (blocks > 0) {
+                offset = blockOffset[0];
+                value = blockFirst[0];
+            }
+        }
+
+        // Checks if the list holds the id.
+        boolean contains(int id) {
+            while (tailAt < tailCount && tail[tailAt] < id) {
+                tailAt++;
+            }
+            if (tailAt < tailCount && tail[tailAt] == id) {
+                return true;
+            }
+            if (block >= blocks || id < value) {
+                return false;
+            }
+
+            // Jump to the last block starting at or before the id.
+            if (block + 1 < blocks && blockFirst[block + 1] <= id) {
+                int low = block + 1;
+                int high = blocks - 1;
+                while (low < high) {
+                    int middle = (low + high + 1) >>> 1;
+                    if (blockFirst[middle] <= id) {
+                        low = middle;
+                    } else {
+                        high = middle - 1;
+                    }
+                }
+                block = low;
+                inBlock = 0;
+                offset = blockOffset[block];
+                value = blockFirst[block];
+            }
+
+            while (value < id && inBlock + 1 < blockCount[block]) {
+                value += readDelta(offset);
+                offset = skipDelta(offset);
+                inBlock++;
+            }
+            return value == id;
+        }
+    }
+
+    // Seal the tail. Ids above the sealed ones become new blocks, anything else rewrites them.
+    private void seal() {
+        if (blocks == 0 || tail[0] > lastPacked) {
+            for (int from = 0; from < tailCount; from += BLOCK_SIZE) {
+                appendBlock(tail, from, Math.min(tailCount, from + BLOCK_SIZE));
+            }
+        } else {
+            int[] packedIds = packedIds();
+            int[] ids = new int[packedIds.length + tailCount];
+            int p = 0;
+            int t = 0;
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = t == tailCount || (p < packedIds.length && packedIds[p] < tail[t]) ? packedIds[p++] : tail[t++];
+            }
+            repack(ids, ids.length);
+        }
+        tailCount = 0;
+    }
+
+    // Replace all blocks with the given sorted ids.
+    private void repack(int[] ids, int count) {
+        packedLength = 0;
+        blocks = 0;
+        packedCount = 0;
+        deadBytes = 0;
+        for (int from = 0; from < count; from += BLOCK_SIZE) {
+            appendBlock(ids, from, Math.min(count, from + BLOCK_SIZE));
+        }
+    }
+
+    private void appendBlock(int[] ids, int from, int to) {
+        if (blocks == blockFirst.length) {
+            int grown = Math.max(4, blocks * 2);
+            blockFirst = Arrays.copyOf(blockFirst, grown);
+            blockOffset = Arrays.copyOf(blockOffset, grown);
+            blockCount = Arrays.copyOf(blockCount, grown);
+        }
+        blockFirst[blocks] = ids[from];
+        blockOffset[blocks] = packedLength;
+        blockCount[blocks] = to - from;
+        blocks++;
+
+        for (int i = from + 1; i < to; i++) {
+            writeDelta(ids[i] - ids[i - 1]);
+        }
+        packedCount += to - from;
+        lastPacked = ids[to - 1];
+    }
+
+    // Drop a block whose only id was removed.
+    private void dropBlock(int block) {
+        System.arraycopy(blockFirst, block + 1, blockFirst, block, blocks - block - 1);
+        System.arraycopy(blockOffset, block + 1, blockOffset, block, blocks - block - 1);
+        System.arraycopy(blockCount, block + 1, blockCount, block, blocks - block - 1);
+        blocks--;
+        packedCount--;
+        if (blocks == 0) {
+            packedLength = 0;
+            deadBytes = 0;
+        }
+        if (block == blocks) {
+            lastPacked = blocks == 0 ? 0 : lastOf(blocks - 1);
+        }
+    }
+
+    // Return the largest id of a block.
+    private int lastOf(int block) {
+        int value = blockFirst[block];
+        int offset = blockOffset[block];
+        for (int i = 1; i < blockCount[block]; i++) {
+            value += readDelta(offset);
+            offset = skipDelta(offset);
+        }
+        return value;
+    }
+
+    // Return the block that may hold the id, or -1.
+    private int blockOf(int id) {
+        int low = 0;
+        int high = blocks - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (blockFirst[middle] <= id) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    private int[] packedIds() {
+        int[] ids = new int[packedCount];
+        int at = 0;
+        for (int block = 0; block < blocks; block++) {
+            int[] blockIds = decodeBlock(block);
+            System.arraycopy(blockIds, 0, ids, at, blockIds.length);
+            at += blockIds.length;
+        }
+        return ids;
+    }
+
+    private int[] decodeBlock(int block) {
+        int[] ids = new int[blockCount[block]];
+        int offset = blockOffset[block];
+        ids[0] = blockFirst[block];
+        for (int i = 1; i < ids.length; i++) {
+            ids[i] = ids[i - 1] + readDelta(offset);
+            offset = skipDelta(offset);
+        }
+        return ids;
+    }
+
+    private void writeDelta(int delta) {
+        if (packedLength + 5 > packed.length) {
+            packed = Arrays.copyOf(packed, Math.max(16, packed.length * 2));
+        }
+        packedLength = writeDeltaAt(packedLength, delta);
+    }
+
+    // Encode a delta at an offset, returning the offset after it.
+    private int writeDeltaAt(int offset, int delta) {
+        while ((delta & ~0x7f) != 0) {
+            packed[offset++] = (byte) ((delta & 0x7f) | 0x80);
+            delta >>>= 7;
+        }
+        packed[offset++] = (byte) delta;
+        return offset;
+    }
+
+    private int readDelta(int offset) {
+        int delta = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = packed[offset++];
+            delta |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return delta;
+    }
+
+    private int skipDelta(int offset) {
+        while (packed[offset++] < 0) {
+        }
+        return offset;
+    }
+}
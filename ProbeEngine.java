@@ -0,0 +1,116 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// Probing engine for the open-addressed library tables.
+// The step prime is fixed once per table capacity, so each probe costs O(1)
+// instead of rescanning for a prime on every call. Probe counts go to striped
+// counters, since optimistic readers of a shared catalog record them concurrently.
+class ProbeEngine {
+    private static final int HISTOGRAM_BUCKETS = 32;
+
+    private final int capacity;
+    private final int stepPrime;
+    private final LongAdder[] probeHistogram;
+
+    public ProbeEngine(int capacity) {
+        this(capacity, newHistogram());
+    }
+
+    private ProbeEngine(int capacity, LongAdder[] probeHistogram) {
+        this.capacity = capacity;
+        this.stepPrime = previousPrime(capacity);
+        this.probeHistogram = probeHistogram;
+    }
+
+    // Build the engine for a new capacity, keeping the probe histogram.
+    public ProbeEngine resize(int newCapacity) {
+        return new ProbeEngine(newCapacity, probeHistogram);
+    }
+
+    // Return the capacity the engine was built for.
+    public int capacity() {
+        return capacity;
+    }
+
+    // Return the prime used for the probe step.
+    public int stepPrime() {
+        return stepPrime;
+    }
+
+    // Home slot of a key.
+    public int home(int hash) {
+        return (hash & 0x7fffffff) % capacity;
+    }
+
+    // Probe step of a key, always between 1 and capacity - 1.
+    // The hash is scrambled first so that keys sharing a home slot get different steps.
+    public int step(int hash) {
+        int mixed = (hash ^ (hash >>> 16)) * 0x85ebca6b;
+        mixed ^= mixed >>> 13;
+        return stepPrime - ((mixed & 0x7fffffff) % stepPrime);
+    }
+
+    // Next slot of a probe sequence.
+    public int next(int index, int step) {
+        index += step;
+        if (index >= capacity) {
+            index -= capacity;
+        }
+        return index;
+    }
+
+    // Record the number of probes one operation needed.
+    public void record(int probes) {
+        probeHistogram[Math.min(probes, HISTOGRAM_BUCKETS - 1)].increment();
+    }
+
+    // Return the probe-count histogram, the last bucket holds the overflow.
+    public long[] probeHistogram() {
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (int b = 0; b < HISTOGRAM_BUCKETS; b++) {
+            histogram[b] = probeHistogram[b].sum();
+        }
+        return histogram;
+    }
+
+    private static LongAdder[] newHistogram() {
+        LongAdder[] histogram = new LongAdder[HISTOGRAM_BUCKETS];
+        for (int b = 0; b < HISTOGRAM_BUCKETS; b++) {
+            histogram[b] = new LongAdder();
+        }
+        return histogram;
+    }
+
+    // Checks if a number is prime.
+    public static boolean isPrime(int number) {
+        if (number <= 1) {
+            return false;
+        }
+        if (number % 2 == 0) {
+            return number == 2;
+        }
+        for (int n = 3; (long) n * n <= number; n += 2) {
+            if (number % n == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Gets the next prime number, the number itself included.
+    public static int nextPrime(int number) {
+        while (!isPrime(number)) {
+            number++;
+        }
+        return number;
+    }
+
+    // Gets the largest prime below the number, or 1 when there is none.
+    private static int previousPrime(int number) {
+        for (int n = number - 1; n > 1; n--) {
+            if (isPrime(n)) {
+                return n;
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,432 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// Library catalog partitioned over shards by ISBN, for catalogs too large for one
+// set of tables. Every shard is a LibrarySystem behind its own StampedLock whose
+// tables grow on their own, so no array spans the whole catalog and a resize only
+// stalls the books of one shard. ISBNs are placed on a consistent hash ring on
+// which every shard owns POINTS_PER_SHARD points: an ISBN goes to the shard of
+// the next point along. ISBN searches and updates go to one shard. Queries that
+// walk a whole shard, such as the books of an author or the loans due, run on all
+// shards at once in a ForkJoinPool; a title or author lookup is one hash probe per
+// shard, cheaper than handing it to another thread, so it asks the shards in turn.
+// Changing the number of shards only moves the books whose part of the ring
+// changes hands, about one shard's share for every shard added or taken away.
+// The ring is immutable and replaced as a whole, while the move holds the locks
+// of all shards, so a call needs no lock of its own to pick a shard: it checks
+// that the ring is still the one it used once it has the shard, and starts over
+// on the new ring otherwise.
+class ShardedLibrarySystem implements LoanReminders.Source {
+    private static final int POINTS_PER_SHARD = 64;
+    private static final Object MOVED = new Object(); // an update found its shard replaced
+
+    private final ForkJoinPool pool;
+    private final int loanCapacity; // of every shard's loan ledger
+    private volatile Ring ring;
+    private int nextShardId; // guarded by this, as resize is
+    private final LongAdder booksInTheLibrary = new LongAdder();
+    private final LongAdder booksBorrowed = new LongAdder();
+
+    public ShardedLibrarySystem() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ShardedLibrarySystem(int shardCount) {
+        this(shardCount, LibrarySystem.DEFAULT_LOAN_CAPACITY);
+    }
+
+    // A catalog whose shards each have room for the given number of loans.
+    public ShardedLibrarySystem(int shardCount, int loanCapacity) {
+        this(shardCount, loanCapacity, ForkJoinPool.commonPool());
+    }
+
+    // A catalog whose searches fan out over the given pool.
+    public ShardedLibrarySystem(int shardCount, ForkJoinPool pool) {
+        this(shardCount, LibrarySystem.DEFAULT_LOAN_CAPACITY, pool);
+    }
+
+    public ShardedLibrarySystem(int shardCount, int loanCapacity, ForkJoinPool pool) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("A catalog needs at least one shard: " + shardCount);
+        }
+        this.pool = pool;
+        this.loanCapacity = loanCapacity;
+
+        CatalogSegment[] shards = new CatalogSegment[shardCount];
+        int[] ids = new int[shardCount];
+        for (int s = 0; s < shardCount; s++) {
+            shards[s] = new CatalogSegment(newShard());
+            ids[s] = nextShardId++;
+        }
+        this.ring = new Ring(shards, ids);
+    }
+
+    // Return the number of shards.
+    public int shardCount() {
+        return ring.shards.length;
+    }
+
+    // Return the number of distinct books in each shard, to see how evenly the ring spreads them.
+    public int[] shardSizes() {
+        List<Integer> sizes = fanOut(shard -> shard.read(LibrarySystem::distinctBooks));
+        return sizes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Return the number of elements in the table.
+    public int booksInTheLibrary() {
+        return booksInTheLibrary.intValue();
+    }
+
+    // Return the number of borrowed books
+    public int booksBorrowed() {
+        return booksBorrowed.intValue();
+    }
+
+    // Checks if the table is empty.
+    public boolean isLibraryEmpty() {
+        return booksInTheLibrary.sum() == 0;
+    }
+
+    // Add a book to the shard of its ISBN.
+    public boolean addABook(Book book) {
+        boolean added = update(book.getIsbn(), library -> library.addABook(book));
+
+        if (added) {
+            booksInTheLibrary.increment();
+        }
+        return added;
+    }
+
+    // Withdraw one shelved copy of a book from the shard of its ISBN.
+    public boolean removeABook(Book book) {
+        boolean removed = update(book.getIsbn(), library -> library.removeABook(book));
+
+        if (removed) {
+            booksInTheLibrary.decrement();
+        }
+        return removed;
+    }
+
+    // Return how many copies of a book are on the shelf.
+    public int availableCopies(Book book) {
+        return read(ring -> ring.shardOf(book.getIsbn()).read(library -> library.availableCopies(book)));
+    }
+
+    // Borrow a book from the shard of its ISBN.
+    public boolean BorrowABook(Book book) {
+        return BorrowABook(book, LibrarySystem.NO_PATRON);
+    }
+
+    // Lend a book to a patron from the shard of its ISBN.
+    public boolean BorrowABook(Book book, int patron) {
+        boolean borrowed = update(book.getIsbn(), library -> library.BorrowABook(book, patron));
+
+        if (borrowed) {
+            booksInTheLibrary.decrement();
+            booksBorrowed.increment();
+        }
+        return borrowed;
+    }
+
+    // Take a borrowed book back into the shard of its ISBN.
+    public boolean returnABook(Book book) {
+        boolean returned = update(book.getIsbn(), library -> library.returnABook(book));
+
+        if (returned) {
+            booksBorrowed.decrement();
+            booksInTheLibrary.increment();
+        }
+        return returned;
+    }
+
+    // Make room for the given number of distinct books, spread over the shards.
+    // Shards own slightly different shares of the ring, hence the margin. When
+    // the shards change meanwhile, the new ones are made room in as well.
+    public void ensureCapacity(int books) {
+        Ring current;
+        do {
+            current = ring;
+            CatalogSegment[] shards = current.shards;
+            int perShard = books / shards.length + books / (shards.length * 4) + 1;
+            for (CatalogSegment shard : shards) {
+                shard.write(library -> {
+                    library.ensureCapacity(perShard);
+                    return null;
+                });
+            }
+        } while (ring != current);
+    }
+
+    // Search the book using its isbn.
+    public Book searchBookByIsbn(String isbn) {
+        return read(ring -> ring.shardOf(isbn).read(library -> library.findBookByIsbn(isbn)));
+    }
+
+    // Search the book using its title.
+    public Book searchBookByTitle(String title) {
+        return first(library -> library.findBookByTitle(title));
+    }
+
+    // Search the book using its authors.
+    public Book searchBookByAuthor(String author) {
+        return first(library -> library.findBookByAuthor(author));
+    }
+
+    // Return the number of books written by an author.
+    public int countBooksByAuthor(String author) {
+        return read(ring -> {
+            int count = 0;
+            for (CatalogSegment shard : ring.shards) {
+                count += shard.read(library -> library.countBooksByAuthor(author));
+            }
+            return count;
+        });
+    }
+
+    // Return every book written by an author, collected from all shards at once.
+    public List<Book> booksByAuthor(String author) {
+        return flatten(fanOut(shard -> shard.readLocked(library -> library.booksByAuthor(author)
+                .collect(Collectors.toList()))));
+    }
+
+    // Return the books a patron has on loan, shard by shard.
+    public List<Book> booksBorrowedBy(int patron) {
+        return flatten(fanOut(shard -> shard.readLocked(library -> library.booksBorrowedBy(patron))));
+    }
+
+    // Return the borrowed books due before the given time, shard by shard.
+    // The ledgers only visit the loans found, so the shards are read optimistically.
+    public List<Book> booksDueBefore(long time) {
+        return flatten(fanOut(shard -> shard.read(library -> library.booksDueBefore(time))));
+    }
+
+    // Take the loans due before the time that no reminder was taken for yet, shard
+    // by shard, each write-locked only while its new loans are taken out. When the
+    // shards change meanwhile it goes over the new ones from the start: moved
+    // loans keep whether they were reminded, so none is taken twice.
+    public List<LoanReminders.Loan> takeLoansDueBefore(long time) {
+        List<LoanReminders.Loan> due = new ArrayList<>();
+        Ring current = ring;
+        for (int s = 0; s < current.shards.length; s++) {
+            Ring used = current;
+            List<LoanReminders.Loan> taken = current.shards[s]
+                    .write(library -> ring == used ? library.takeLoansDueBefore(time) : null);
+            if (taken == null) {
+                current = ring;
+                s = -1;
+                continue;
+            }
+            due.addAll(taken);
+        }
+        return due;
+    }
+
+    public Book[] getBooksInLibrary() {
+        return flatten(fanOut(shard -> shard.readLocked(library -> Arrays.asList(library.getBooksInLibrary()))))
+                .toArray(new Book[0]);
+    }
+
+    public Book[] getBorrowedBooks() {
+        return flatten(fanOut(shard -> shard.readLocked(library -> Arrays.asList(library.getBorrowedBooks()))))
+                .toArray(new Book[0]);
+    }
+
+    // Change the number of shards, adding new ones or taking away the newest, and
+    // move the books whose part of the ring changes hands with their copies and
+    // loans. Every shard is write-locked until the new ring is in place, so every
+    // other call waits meanwhile. Returns how many distinct books moved.
+    public synchronized int resize(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("A catalog needs at least one shard: " + shardCount);
+        }
+        Ring from = ring;
+        int kept = Math.min(shardCount, from.shards.length);
+        CatalogSegment[] shards = Arrays.copyOf(from.shards, shardCount);
+        int[] ids = Arrays.copyOf(from.ids, shardCount);
+        LibrarySystem[] libraries = new LibrarySystem[Math.max(shardCount, from.shards.length)];
+        for (int s = kept; s < shardCount; s++) {
+            libraries[s] = newShard();
+            shards[s] = new CatalogSegment(libraries[s]);
+            ids[s] = nextShardId++;
+        }
+        Ring to = new Ring(shards, ids);
+
+        return writeAll(from.shards, libraries, 0, () -> {
+            // The shards that stay keep their points, so no book changes hands between
+            // two of them: growing only feeds the new shards and shrinking only empties
+            // the removed ones. Loan ledgers are bounded, so they are checked for room
+            // before anything moves.
+            int[] incomingLoans = new int[shardCount];
+            for (int source = 0; source < from.shards.length; source++) {
+                for (int target = 0; target < shardCount; target++) {
+                    if (source >= kept || target >= kept) {
+                        int owner = target;
+                        incomingLoans[target] += libraries[source]
+                                .loansOf(book -> to.owner(book.getIsbn()) == owner);
+                    }
+                }
+            }
+            for (int target = 0; target < shardCount; target++) {
+                int room = libraries[target].loanCapacity() - libraries[target].loans();
+                if (incomingLoans[target] > room) {
+                    throw new IllegalStateException(
+                            "Shard " + target + " has no room for " + incomingLoans[target] + " more loans");
+                }
+            }
+
+            int moved = 0;
+            for (int source = 0; source < from.shards.length; source++) {
+                for (int target = 0; target < shardCount; target++) {
+                    if (source >= kept || target >= kept) {
+                        int owner = target;
+                        moved += libraries[source]
+                                .moveBooksTo(libraries[target], book -> to.owner(book.getIsbn()) == owner);
+                    }
+                }
+            }
+            ring = to;
+            return moved;
+        });
+    }
+
+    private LibrarySystem newShard() {
+        return new LibrarySystem(LibrarySystem.DEFAULT_CAPACITY, loanCapacity);
+    }
+
+    // Write-lock the shards from the given one on, in order, noting their
+    // libraries, and run the update once all are held.
+    private static <T> T writeAll(CatalogSegment[] shards, LibrarySystem[] libraries, int from, Supplier<T> update) {
+        if (from == shards.length) {
+            return update.get();
+        }
+        return shards[from].write(library -> {
+            libraries[from] = library;
+            return writeAll(shards, libraries, from + 1, update);
+        });
+    }
+
+    // Run a read against the current ring, again on the new ring when books moved
+    // between shards meanwhile. A move holds the shard locks until the new ring is
+    // in place, so a shard read that overlapped it ends after the ring changed.
+    private <T> T read(Function<Ring, T> query) {
+        while (true) {
+            Ring current = ring;
+            T result = query.apply(current);
+            if (ring == current) {
+                return result;
+            }
+        }
+    }
+
+    // Run an update on the shard of an ISBN. The ring is checked again under the
+    // shard's lock, so a book cannot move away between picking its shard and
+    // changing it; when it did, the update goes to its new shard instead.
+    @SuppressWarnings("unchecked")
+    private <T> T update(String isbn, Function<LibrarySystem, T> update) {
+        while (true) {
+            Ring current = ring;
+            Object result = current.shardOf(isbn).write(library -> ring == current ? update.apply(library) : MOVED);
+            if (result != MOVED) {
+                return (T) result;
+            }
+        }
+    }
+
+    // Run a query on every shard and return the results in shard order. The pool
+    // takes all shards but the first, which the calling thread does meanwhile.
+    private <T> List<T> fanOut(Function<CatalogSegment, T> query) {
+        return read(ring -> {
+            CatalogSegment[] shards = ring.shards;
+            List<ForkJoinTask<T>> tasks = new ArrayList<>(shards.length - 1);
+            for (int s = 1; s < shards.length; s++) {
+                CatalogSegment shard = shards[s];
+                tasks.add(pool.submit(() -> query.apply(shard)));
+            }
+
+            List<T> results = new ArrayList<>(shards.length);
+            results.add(query.apply(shards[0]));
+            for (ForkJoinTask<T> task : tasks) {
+                results.add(task.join());
+            }
+            return results;
+        });
+    }
+
+    // Ask the shards in turn and return the first book found.
+    private Book first(Function<LibrarySystem, Book> lookup) {
+        return read(ring -> {
+            for (CatalogSegment shard : ring.shards) {
+                Book book = shard.read(lookup);
+                if (book != null) {
+                    return book;
+                }
+            }
+            return null;
+        });
+    }
+
+    private static <T> List<T> flatten(List<List<T>> lists) {
+        List<T> items = new ArrayList<>();
+        for (List<T> list : lists) {
+            items.addAll(list);
+        }
+        return items;
+    }
+
+    // Spread a key over the 64-bit ring, so neighbouring ISBNs land far apart.
+    private static long mix(long key) {
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        return key ^ (key >>> 31);
+    }
+
+    // The shards and their points on the ring, sorted by position. A shard's
+    // points follow from its id alone, so they stay put when others come and go.
+    private static final class Ring {
+        final CatalogSegment[] shards;
+        final int[] ids;
+        final long[] points;
+        final int[] owners; // shard index of each point
+
+        Ring(CatalogSegment[] shards, int[] ids) {
+            this.shards = shards;
+            this.ids = ids;
+
+            int count = shards.length * POINTS_PER_SHARD;
+            long[] unsorted = new long[count];
+            Integer[] order = new Integer[count];
+            for (int p = 0; p < count; p++) {
+                unsorted[p] = mix(((long) ids[p / POINTS_PER_SHARD] << 32) | (p % POINTS_PER_SHARD));
+                order[p] = p;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(unsorted[a], unsorted[b]));
+
+            this.points = new long[count];
+            this.owners = new int[count];
+            for (int p = 0; p < count; p++) {
+                points[p] = unsorted[order[p]];
+                owners[p] = order[p] / POINTS_PER_SHARD;
+            }
+        }
+
+        // Return the index of the shard owning an ISBN.
+        int owner(String isbn) {
+            int point = Arrays.binarySearch(points, mix(IsbnKeys.key(isbn)));
+            if (point < 0) {
+                point = -point - 1;
+            }
+            return owners[point == points.length ? 0 : point];
+        }
+
+        CatalogSegment shardOf(String isbn) {
+            return shards[owner(isbn)];
+        }
+    }
+}
\ No newline at end of file
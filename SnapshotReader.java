@@ -0,0 +1,50 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+// Sequential reader over one mapped section of a catalog snapshot file.
+// Arrays are copied out with bulk gets, which the JDK turns into plain memory copies.
+class SnapshotReader {
+    private final ByteBuffer buffer;
+
+    public SnapshotReader(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int getInt() {
+        return buffer.getInt();
+    }
+
+    public long getLong() {
+        return buffer.getLong();
+    }
+
+    public byte[] getBytes(int count) {
+        byte[] values = new byte[count];
+        buffer.get(values);
+        return values;
+    }
+
+    // Read a string written by SnapshotWriter.putString.
+    public String getString() {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        return new String(getBytes(length), StandardCharsets.UTF_8);
+    }
+
+    public int[] getInts(int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    public long[] getLongs(int count) {
+        long[] values = new long[count];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + count * 8);
+        return values;
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Sequential writer for catalog snapshot files.
+// Values go through one direct buffer into a FileChannel, little-endian, so
+// SnapshotReader can later copy whole arrays out of the mapped file at once.
+class SnapshotWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long flushed; // bytes already handed to the channel
+
+    public SnapshotWriter(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    // Return the file offset the next value is written at.
+    public long position() {
+        return flushed + buffer.position();
+    }
+
+    public void putInt(int value) throws IOException {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    public void putLong(long value) throws IOException {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    public void putBytes(byte[] values, int from, int count) throws IOException {
+        while (count > 0) {
+            ensure(1);
+            int n = Math.min(count, buffer.remaining());
+            buffer.put(values, from, n);
+            from += n;
+            count -= n;
+        }
+    }
+
+    // Write a string as its UTF-8 length and bytes, null as length -1.
+    public void putString(String value) throws IOException {
+        if (value == null) {
+            putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        putBytes(bytes, 0, bytes.length);
+    }
+
+    public void putInts(int[] values, int from, int count) throws IOException {
+        while (count > 0) {
+            ensure(4);
+            int n = Math.min(count, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(values, from, n);
+            buffer.position(buffer.position() + n * 4);
+            from += n;
+            count -= n;
+        }
+    }
+
+    public void putLongs(long[] values, int from, int count) throws IOException {
+        while (count > 0) {
+            ensure(8);
+            int n = Math.min(count, buffer.remaining() / 8);
+            buffer.asLongBuffer().put(values, from, n);
+            buffer.position(buffer.position() + n * 8);
+            from += n;
+            count -= n;
+        }
+    }
+
+    // Overwrite bytes written earlier, such as a header reserved at the start.
+    public void putAt(long position, ByteBuffer bytes) throws IOException {
+        flush();
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+    }
+
+    // Push everything written so far to the channel.
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushed += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Flush and wait until the bytes are on the disk.
+    public void force() throws IOException {
+        flush();
+        channel.force(false);
+    }
+
+    public void close() throws IOException {
+        try {
+            force();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
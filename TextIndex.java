@@ -0,0 +1,337 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntFunction;
+
+// Inverted index from the words of titles and author names to record ids.
+// Each field has its own PostingIndex, so the posting lists are the compressed
+// ones the author index already uses. A query is a list of words that must all
+// appear, and OR between such lists lets any of them match: "history rome OR
+// gibbon" finds books with both history and rome, or with gibbon. Matches are
+// scored by the idf of the query words they contain, a word in the title
+// counting twice as much as one in the author name, and the best ones are kept
+// in a small heap.
+class TextIndex {
+    private static final double AUTHOR_WEIGHT = 0.5;
+
+    private final PostingIndex titleWords;
+    private final PostingIndex authorWords;
+    private int documents;
+
+    public TextIndex(int capacity) {
+        this.titleWords = new PostingIndex(capacity);
+        this.authorWords = new PostingIndex(capacity);
+    }
+
+    // A record found by a query with its score.
+    static class Match {
+        final Book book;
+        final double score;
+
+        Match(Book book, double score) {
+            this.book = book;
+            this.score = score;
+        }
+    }
+
+    // Split text into its distinct lower case words, runs of letters or digits.
+    public static String[] words(String text) {
+        String[] words = new String[8];
+        int count = 0;
+        int start = -1;
+
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                String word = text.substring(start, i).toLowerCase(Locale.ROOT);
+                start = -1;
+                if (indexOf(words, count, word) >= 0) {
+                    continue;
+                }
+                if (count == words.length) {
+                    words = Arrays.copyOf(words, count * 2);
+                }
+                words[count++] = word;
+            }
+        }
+        return Arrays.copyOf(words, count);
+    }
+
+    // Return the number of records indexed.
+    public int documents() {
+        return documents;
+    }
+
+    // Return the number of distinct words in titles and in author names.
+    public int words() {
+        return titleWords.keys() + authorWords.keys();
+    }
+
+    // Index the words of a record.
+    public void add(int id, String title, String author) {
+        for (String word : words(title)) {
+            titleWords.add(word, id);
+        }
+        for (String word : words(author)) {
+            authorWords.add(word, id);
+        }
+        documents++;
+    }
+
+    // Take the words of a record out of the index.
+    public void remove(int id, String title, String author) {
+        for (String word : words(title)) {
+            titleWords.remove(word, id);
+        }
+        for (String word : words(author)) {
+            authorWords.remove(word, id);
+        }
+        documents--;
+    }
+
+    // Return the best scoring records for a query, best first, at most limit of them.
+    public List<Match> search(String query, int limit, IntFunction<Book> record) {
+        List<String[]> clauses = parse(query);
+        if (clauses.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        // Candidates of every clause, merged when there are several.
+        int[] candidates = null;
+        for (String[] clause : clauses) {
+            int[] matches = matchAll(clause);
+            if (candidates == null) {
+                candidates = matches;
+            } else {
+                candidates = union(candidates, matches);
+            }
+        }
+
+        // Score against every distinct word of the query.
+        List<String> scored = new ArrayList<>();
+        for (String[] clause : clauses) {
+            for (String word : clause) {
+                if (!scored.contains(word)) {
+                    scored.add(word);
+                }
+            }
+        }
+        PostingList[] titleLists = new PostingList[scored.size()];
+        PostingList[] authorLists = new PostingList[scored.size()];
+        double[] idf = new double[scored.size()];
+        for (int w = 0; w < idf.length; w++) {
+            titleLists[w] = titleWords.get(scored.get(w));
+            authorLists[w] = authorWords.get(scored.get(w));
+            int frequency = size(titleLists[w]) + size(authorLists[w]);
+            idf[w] = Math.log(1 + (double) documents / Math.max(1, frequency));
+        }
+
+        // Candidates come in ascending order, so every list is probed through a cursor.
+        PostingList.Cursor[] titleCursors = cursors(titleLists);
+        PostingList.Cursor[] authorCursors = cursors(authorLists);
+        TopK top = new TopK(Math.min(limit, candidates.length));
+        for (int id : candidates) {
+            double score = 0;
+            for (int w = 0; w < idf.length; w++) {
+                if (titleCursors[w] != null && titleCursors[w].contains(id)) {
+                    score += idf[w];
+                }
+                if (authorCursors[w] != null && authorCursors[w].contains(id)) {
+                    score += idf[w] * AUTHOR_WEIGHT;
+                }
+            }
+            top.offer(id, score);
+        }
+        return top.matches(record);
+    }
+
+    // Split a query into its clauses, each a list of words that must all match.
+    private static List<String[]> parse(String query) {
+        List<String[]> clauses = new ArrayList<>();
+        StringBuilder clause = new StringBuilder();
+
+        for (String part : query.trim().split("\\s+")) {
+            if (part.equals("OR")) {
+                addClause(clauses, clause.toString());
+                clause.setLength(0);
+            } else if (!part.equals("AND")) {
+                clause.append(part).append(' ');
+            }
+        }
+        addClause(clauses, clause.toString());
+        return clauses;
+    }
+
+    private static void addClause(List<String[]> clauses, String text) {
+        String[] words = words(text);
+        if (words.length > 0) {
+            clauses.add(words);
+        }
+    }
+
+    // Return the ids holding every word, in title or author, ascending. The word
+    // with the fewest records drives the search and the others are probed.
+    private int[] matchAll(String[] words) {
+        PostingList[] titleLists = new PostingList[words.length];
+        PostingList[] authorLists = new PostingList[words.length];
+        int driver = 0;
+
+        for (int w = 0; w < words.length; w++) {
+            titleLists[w] = titleWords.get(words[w]);
+            authorLists[w] = authorWords.get(words[w]);
+            if (titleLists[w] == null && authorLists[w] == null) {
+                return new int[0];
+            }
+            if (size(titleLists[w]) + size(authorLists[w]) < size(titleLists[driver]) + size(authorLists[driver])) {
+                driver = w;
+            }
+        }
+
+        int[] ids = union(toArray(titleLists[driver]), toArray(authorLists[driver]));
+        PostingList.Cursor[] titleCursors = cursors(titleLists);
+        PostingList.Cursor[] authorCursors = cursors(authorLists);
+        int count = 0;
+        for (int id : ids) {
+            boolean all = true;
+            for (int w = 0; w < words.length && all; w++) {
+                all = w == driver || (titleCursors[w] != null && titleCursors[w].contains(id))
+                        || (authorCursors[w] != null && authorCursors[w].contains(id));
+            }
+            if (all) {
+                ids[count++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    // Merge two ascending id arrays, dropping duplicates.
+    private static int[] union(int[] a, int[] b) {
+        int[] merged = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+
+        while (i < a.length || j < b.length) {
+            int next;
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                next = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                next = b[j++];
+            } else {
+                next = a[i++];
+                j++;
+            }
+            merged[count++] = next;
+        }
+        return Arrays.copyOf(merged, count);
+    }
+
+    private static PostingList.Cursor[] cursors(PostingList[] lists) {
+        PostingList.Cursor[] cursors = new PostingList.Cursor[lists.length];
+        for (int l = 0; l < lists.length; l++) {
+            cursors[l] = lists[l] == null ? null : lists[l].cursor();
+        }
+        return cursors;
+    }
+
+    private static int[] toArray(PostingList list) {
+        return list == null ? new int[0] : list.toArray();
+    }
+
+    private static int size(PostingList list) {
+        return list == null ? 0 : list.size();
+    }
+
+    private static int indexOf(String[] words, int count, String word) {
+        for (int i = 0; i < count; i++) {
+            if (words[i].equals(word)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Min-heap of the best scores seen, ties going to the lower id.
+    private static class TopK {
+        private final int[] ids;
+        private final double[] scores;
+        private int size;
+
+        TopK(int capacity) {
+            this.ids = new int[capacity];
+            this.scores = new double[capacity];
+        }
+
+        void offer(int id, double score) {
+            if (ids.length == 0) {
+                return;
+            }
+            if (size < ids.length) {
+                ids[size] = id;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (worse(0, id, score)) {
+                ids[0] = id;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        // Drain the heap into matches, best first.
+        List<Match> matches(IntFunction<Book> record) {
+            Match[] matches = new Match[size];
+            while (size > 0) {
+                matches[size - 1] = new Match(record.apply(ids[0]), scores[0]);
+                size--;
+                ids[0] = ids[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+            return new ArrayList<>(Arrays.asList(matches));
+        }
+
+        // Checks if the entry at a heap position ranks below the given one.
+        private boolean worse(int at, int id, double score) {
+            return scores[at] < score || (scores[at] == score && ids[at] > id);
+        }
+
+        private void siftUp(int at) {
+            while (at > 0) {
+                int parent = (at - 1) / 2;
+                if (!worse(at, ids[parent], scores[parent])) {
+                    break;
+                }
+                swap(at, parent);
+                at = parent;
+            }
+        }
+
+        private void siftDown(int at) {
+            while (true) {
+                int smallest = at;
+                for (int child = 2 * at + 1; child <= 2 * at + 2 && child < size; child++) {
+                    if (worse(child, ids[smallest], scores[smallest])) {
+                        smallest = child;
+                    }
+                }
+                if (smallest == at) {
+                    return;
+                }
+                swap(at, smallest);
+                at = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            double score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+}
@@ -0,0 +1,499 @@
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.function.IntPredicate;
+
+// Path-compressed trie over normalized titles for prefix and fuzzy searches.
+// Nodes live in parallel int arrays and their edge labels are slices of one
+// shared char array, so splitting an edge never copies text. Children are kept
+// in a sibling list sorted by their first char, which makes a depth-first walk
+// visit titles in alphabetical order. Every title node owns a PostingList of the
+// record ids with that title. Removing a title frees its nodes for reuse and
+// merges a node left with one child and no title into that child's edge, so the
+// trie stays as compact as if the title had never been added. Label chars freed
+// that way are counted, and the labels still in use are copied into a fresh
+// array once the dead ones make up half of it.
+class TitleTrie {
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private char[] labels = new char[1024];
+    private int labelLength;
+    private int deadChars; // label chars no node uses any more
+    private int[] labelStart = new int[64];
+    private int[] labelEnd = new int[64];
+    private int[] firstChild = new int[64];
+    private int[] nextSibling = new int[64];
+    private PostingList[] ids = new PostingList[64]; // null unless a title ends at the node
+    private int nodeCount;
+    private int[] freeNodes = new int[16];
+    private int freeNodeCount;
+    private int titles; // distinct normalized titles
+
+    public TitleTrie() {
+        newNode(0, 0);
+    }
+
+    // Fold a title to the form the trie keys on: lower case, with every run of
+    // characters that are not letters or digits turned into one space.
+    public static String normalize(String title) {
+        StringBuilder normalized = new StringBuilder(title.length());
+        boolean space = false;
+
+        for (int i = 0; i < title.length(); i++) {
+            char c = title.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                normalized.append(Character.toLowerCase(c));
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    // Return the edit distance between two normalized titles, or maxDistance + 1
+    // when it is larger than maxDistance.
+    public static int editDistance(String a, String b, int maxDistance) {
+        if (Math.abs(a.length() - b.length()) > maxDistance) {
+            return maxDistance + 1;
+        }
+        int[] row = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            row[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            int diagonal = row[0];
+            row[0] = i;
+            int best = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int above = row[j];
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                row[j] = Math.min(Math.min(above + 1, row[j - 1] + 1), diagonal + cost);
+                diagonal = above;
+                best = Math.min(best, row[j]);
+            }
+            if (best > maxDistance) {
+                return maxDistance + 1;
+            }
+        }
+        return Math.min(row[b.length()], maxDistance + 1);
+    }
+
+    // Return the number of distinct normalized titles.
+    public int titles() {
+        return titles;
+    }
+
+    // Return the number of nodes in use.
+    public int nodes() {
+        return nodeCount - freeNodeCount;
+    }
+
+    // File a record id under a title.
+    public void add(String title, int id) {
+        String key = normalize(title);
+        int node = ROOT;
+        int at = 0;
+
+        while (at < key.length()) {
+            char first = key.charAt(at);
+            int previous = NONE;
+            int child = firstChild[node];
+            while (child != NONE && labels[labelStart[child]] < first) {
+                previous = child;
+                child = nextSibling[child];
+            }
+
+            if (child == NONE || labels[labelStart[child]] != first) {
+                // No edge starts with this char, the rest of the title becomes a new leaf.
+                int start = appendLabel(key, at);
+                int leaf = newNode(start, start + key.length() - at);
+                nextSibling[leaf] = child;
+                if (previous == NONE) {
+                    firstChild[node] = leaf;
+                } else {
+                    nextSibling[previous] = leaf;
+                }
+                node = leaf;
+                break;
+            }
+
+            int matched = 1;
+            int length = labelEnd[child] - labelStart[child];
+            while (matched < length && at + matched < key.length()
+                    && labels[labelStart[child] + matched] == key.charAt(at + matched)) {
+                matched++;
+            }
+            if (matched < length) {
+                split(child, matched);
+            }
+            node = child;
+            at += matched;
+        }
+
+        if (ids[node] == null) {
+            ids[node] = new PostingList();
+            titles++;
+        }
+        ids[node].add(id);
+    }
+
+    // Take a record id off a title, pruning the nodes left without titles below them.
+    public boolean remove(String title, int id) {
+        String key = normalize(title);
+        int[] path = new int[key.length() + 1];
+        int depth = 0;
+        int node = ROOT;
+        int at = 0;
+        path[depth++] = node;
+
+        while (at < key.length()) {
+            node = child(node, key.charAt(at));
+            if (node == NONE || !labelMatches(node, key, at)) {
+                return false;
+            }
+            at += labelEnd[node] - labelStart[node];
+            path[depth++] = node;
+        }
+
+        if (ids[node] == null || !ids[node].remove(id)) {
+            return false;
+        }
+        if (!ids[node].isEmpty()) {
+            return true;
+        }
+        ids[node] = null;
+        titles--;
+
+        // Unlink empty leaves bottom up, then merge the node they hung from into
+        // its child if it is left with only one and no title of its own.
+        int d = depth - 1;
+        for (; d > 0; d--) {
+            int leaf = path[d];
+            if (ids[leaf] != null || firstChild[leaf] != NONE) {
+                break;
+            }
+            unlink(path[d - 1], leaf);
+            deadChars += labelEnd[leaf] - labelStart[leaf];
+            freeNode(leaf);
+        }
+        node = path[d];
+        if (node != ROOT && ids[node] == null && firstChild[node] != NONE && nextSibling[firstChild[node]] == NONE) {
+            merge(node);
+        }
+        if (deadChars > labelLength / 2) {
+            compactLabels();
+        }
+        return true;
+    }
+
+    // Pass the ids of the titles starting with the prefix to the action in
+    // alphabetical order of title, an exact match first, until it returns false.
+    // A prefix ending in a separator only matches titles with more words after it.
+    public void forEachWithPrefix(String prefix, IntPredicate action) {
+        String key = normalize(prefix);
+        if (!key.isEmpty() && !Character.isLetterOrDigit(prefix.charAt(prefix.length() - 1))) {
+            key += ' ';
+        }
+        int node = ROOT;
+        int at = 0;
+
+        while (at < key.length()) {
+            node = child(node, key.charAt(at));
+            if (node == NONE) {
+                return;
+            }
+            int length = Math.min(labelEnd[node] - labelStart[node], key.length() - at);
+            for (int i = 1; i < length; i++) {
+                if (labels[labelStart[node] + i] != key.charAt(at + i)) {
+                    return;
+                }
+            }
+            at += length;
+        }
+        walk(node, action);
+    }
+
+    // Return the ids of the titles within maxDistance edits of the title, closest
+    // first and alphabetically among equally close ones, at most limit of them.
+    public int[] fuzzy(String title, int maxDistance, int limit) {
+        String key = normalize(title);
+        FuzzyWalk walk = new FuzzyWalk(key, maxDistance, limit);
+        walk.visitChildren(ROOT, 0);
+        return walk.results();
+    }
+
+    // Visit the titles under a node in alphabetical order. Returns false once the action stops.
+    private boolean walk(int node, IntPredicate action) {
+        if (ids[node] != null) {
+            PrimitiveIterator.OfInt it = ids[node].iterator();
+            while (it.hasNext()) {
+                if (!action.test(it.nextInt())) {
+                    return false;
+                }
+            }
+        }
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+            if (!walk(child, action)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Edit distance search: each node extends the dynamic programming row of its
+    // parent by the chars of its label, and subtrees whose row has no entry within
+    // the bound are skipped. Only the band of the row within the bound of the
+    // diagonal is computed, and the bound drops as soon as enough closer titles
+    // are found.
+    private class FuzzyWalk {
+        private final char[] key;
+        private final int limit;
+        private int bound; // largest distance still worth collecting
+        private final int[][] rows; // one row per char depth, reused across the walk
+        private final int[][] found; // ids per distance
+        private final int[] foundCount;
+
+        FuzzyWalk(String key, int maxDistance, int limit) {
+            this.key = key.toCharArray();
+            this.limit = limit;
+            this.bound = maxDistance;
+            this.rows = new int[key.length() + maxDistance + 2][key.length() + 1];
+            this.found = new int[maxDistance + 1][Math.min(limit, 64)];
+            this.foundCount = new int[maxDistance + 1];
+            for (int j = 0; j <= key.length(); j++) {
+                rows[0][j] = j;
+            }
+        }
+
+        void visitChildren(int node, int depth) {
+            for (int child = firstChild[node]; child != NONE && bound >= 0; child = nextSibling[child]) {
+                visit(child, depth);
+            }
+        }
+
+        private void visit(int node, int depth) {
+            for (int c = labelStart[node]; c < labelEnd[node]; c++) {
+                if (!step(++depth, labels[c])) {
+                    return;
+                }
+            }
+
+            // The last entry is only filled in once the band reaches it.
+            int distance = depth + bound >= key.length ? rows[depth][key.length] : bound + 1;
+            if (ids[node] != null && distance <= bound) {
+                PrimitiveIterator.OfInt it = ids[node].iterator();
+                while (it.hasNext() && distance <= bound) {
+                    collect(distance, it.nextInt());
+                }
+            }
+            visitChildren(node, depth);
+        }
+
+        // Fill the row of a depth from the one above. Returns false when every
+        // entry is past the bound, so nothing below can match.
+        private boolean step(int depth, char c) {
+            if (depth - bound > key.length) {
+                return false;
+            }
+            int[] previous = rows[depth - 1];
+            int[] row = rows[depth];
+            int outside = bound + 1;
+            int from = Math.max(1, depth - bound);
+            int to = Math.min(key.length, depth + bound);
+
+            row[0] = Math.min(depth, outside);
+            if (from > 1) {
+                row[from - 1] = outside;
+            }
+            int best = from == 1 ? row[0] : outside;
+            for (int j = from; j <= to; j++) {
+                int cost = key[j - 1] == c ? 0 : 1;
+                int above = j <= depth - 1 + bound ? previous[j] : outside;
+                int value = Math.min(Math.min(above + 1, row[j - 1] + 1), previous[j - 1] + cost);
+                row[j] = Math.min(value, outside);
+                best = Math.min(best, row[j]);
+            }
+            if (to < key.length) {
+                row[to + 1] = outside;
+            }
+            return best <= bound;
+        }
+
+        private void collect(int distance, int id) {
+            if (foundCount[distance] == found[distance].length) {
+                found[distance] = Arrays.copyOf(found[distance], Math.min(limit, found[distance].length * 2));
+            }
+            found[distance][foundCount[distance]++] = id;
+
+            // Once the closer titles fill the results, farther ones can no longer get in.
+            int count = 0;
+            for (int d = 0; d <= bound; d++) {
+                count += foundCount[d];
+                if (count >= limit) {
+                    bound = d - 1;
+                    break;
+                }
+            }
+        }
+
+        int[] results() {
+            int[] results = new int[limit];
+            int count = 0;
+            for (int d = 0; d < foundCount.length && count < limit; d++) {
+                int take = Math.min(foundCount[d], limit - count);
+                System.arraycopy(found[d], 0, results, count, take);
+                count += take;
+            }
+            return Arrays.copyOf(results, count);
+        }
+    }
+
+    // Return the child of a node whose label starts with the char, or NONE.
+    private int child(int node, char first) {
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+            char label = labels[labelStart[child]];
+            if (label == first) {
+                return child;
+            }
+            if (label > first) {
+                break;
+            }
+        }
+        return NONE;
+    }
+
+    // Checks if the whole label of a node matches the key from a position on.
+    private boolean labelMatches(int node, String key, int at) {
+        int length = labelEnd[node] - labelStart[node];
+        if (at + length > key.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (labels[labelStart[node] + i] != key.charAt(at + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Cut the label of a node after its first chars, moving the rest and the
+    // node's titles and children into a new child.
+    private void split(int node, int length) {
+        int tail = newNode(labelStart[node] + length, labelEnd[node]);
+        firstChild[tail] = firstChild[node];
+        ids[tail] = ids[node];
+
+        labelEnd[node] = labelStart[node] + length;
+        firstChild[node] = tail;
+        ids[node] = null;
+    }
+
+    // Fold the only child of a node into it: the node takes the child's titles and
+    // children, and its label grows by the child's. The labels are usually next to
+    // each other from an earlier split, otherwise the joined label is appended.
+    private void merge(int node) {
+        int child = firstChild[node];
+        if (labelEnd[node] == labelStart[child]) {
+            labelEnd[node] = labelEnd[child];
+        } else {
+            int length = labelEnd[node] - labelStart[node];
+            int childLength = labelEnd[child] - labelStart[child];
+            if (labelLength + length + childLength > labels.length) {
+                labels = Arrays.copyOf(labels, Math.max(labels.length * 2, labelLength + length + childLength));
+            }
+            System.arraycopy(labels, labelStart[node], labels, labelLength, length);
+            System.arraycopy(labels, labelStart[child], labels, labelLength + length, childLength);
+            labelStart[node] = labelLength;
+            labelLength += length + childLength;
+            labelEnd[node] = labelLength;
+            deadChars += length + childLength;
+        }
+        firstChild[node] = firstChild[child];
+        ids[node] = ids[child];
+        freeNode(child);
+    }
+
+    // Copy the labels in use into a fresh array, dropping the dead chars.
+    private void compactLabels() {
+        char[] compacted = new char[Math.max(1024, (labelLength - deadChars) * 2)];
+        int length = 0;
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = ROOT;
+
+        while (top > 0) {
+            int node = stack[--top];
+            int labelSize = labelEnd[node] - labelStart[node];
+            System.arraycopy(labels, labelStart[node], compacted, length, labelSize);
+            labelStart[node] = length;
+            length += labelSize;
+            labelEnd[node] = length;
+            for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = child;
+            }
+        }
+        labels = compacted;
+        labelLength = length;
+        deadChars = 0;
+    }
+
+    private void unlink(int parent, int node) {
+        if (firstChild[parent] == node) {
+            firstChild[parent] = nextSibling[node];
+            return;
+        }
+        int child = firstChild[parent];
+        while (nextSibling[child] != node) {
+            child = nextSibling[child];
+        }
+        nextSibling[child] = nextSibling[node];
+    }
+
+    private int appendLabel(String key, int from) {
+        int length = key.length() - from;
+        if (labelLength + length > labels.length) {
+            labels = Arrays.copyOf(labels, Math.max(labels.length * 2, labelLength + length));
+        }
+        key.getChars(from, key.length(), labels, labelLength);
+        int start = labelLength;
+        labelLength += length;
+        return start;
+    }
+
+    private int newNode(int start, int end) {
+        int node;
+        if (freeNodeCount > 0) {
+            node = freeNodes[--freeNodeCount];
+        } else {
+            if (nodeCount == firstChild.length) {
+                int grown = nodeCount * 2;
+                labelStart = Arrays.copyOf(labelStart, grown);
+                labelEnd = Arrays.copyOf(labelEnd, grown);
+                firstChild = Arrays.copyOf(firstChild, grown);
+                nextSibling = Arrays.copyOf(nextSibling, grown);
+                ids = Arrays.copyOf(ids, grown);
+            }
+            node = nodeCount++;
+        }
+        labelStart[node] = start;
+        labelEnd[node] = end;
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        ids[node] = null;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        if (freeNodeCount == freeNodes.length) {
+            freeNodes = Arrays.copyOf(freeNodes, freeNodes.length * 2);
+        }
+        freeNodes[freeNodeCount++] = node;
+    }
+}
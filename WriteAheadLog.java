@@ -0,0 +1,328 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Append-only log of catalog and loan mutations.
+// Records are buffered and forced to the disk in groups by the flusher thread,
+// once batchSize records are pending or every syncInterval milliseconds,
+// whichever comes first, so a checkout never waits for its own fsync. A flush
+// swaps the buffer for a spare one under the lock and writes and forces the full
+// one outside it, so appends go on while the disk works. Callers that need a
+// mutation to be on the disk wait for its sequence number with awaitDurable.
+//
+// A write or fsync that fails stops the log: it takes no more records and every
+// later checkHealthy, sync and awaitDurable reports the failure. Callers check
+// the log before they change anything, so a failure never surfaces halfway
+// through a mutation.
+//
+// Record layout: length, sequence, time, type, patron, title, author, isbn, edition,
+// then a CRC32 of everything after the length. Replay stops at the first record
+// that is cut short or fails its checksum, which is where a crash left the log.
+class WriteAheadLog implements Closeable {
+    public static final byte ADD = 1;
+    public static final byte BORROW = 2;
+    public static final byte RETURN = 3;
+    public static final byte REMOVE = 4;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final Object flushLock = new Object(); // held by the one thread writing and forcing
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer spare = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer record = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 checksum = new CRC32();
+    private final int batchSize;
+    private final ScheduledExecutorService flusher;
+    private long sequence; // last sequence handed out
+    private long durableSequence; // last sequence forced to the disk
+    private int pending;
+    private boolean flushRequested; // a flush is queued on the flusher
+    private IOException failure; // the write or fsync that stopped the log, or null
+
+    private WriteAheadLog(FileChannel channel, long sequence, int batchSize, long syncInterval) {
+        this.channel = channel;
+        this.sequence = sequence;
+        this.durableSequence = sequence;
+        this.batchSize = batchSize;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Without an interval the log is only forced for full batches and on request.
+        if (syncInterval > 0) {
+            flusher.scheduleWithFixedDelay(this::syncOrFail, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Open a log, replay the records the library has not seen yet onto it and
+    // attach the log, so the library's later mutations are appended.
+    public static WriteAheadLog open(Path path, LibrarySystem library, int batchSize, long syncInterval)
+            throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long[] last;
+        try {
+            last = replay(channel, library);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        // Drop a torn tail so new records follow the last good one.
+        channel.truncate(last[0]);
+        channel.position(last[0]);
+        WriteAheadLog log = new WriteAheadLog(channel, Math.max(last[1], library.logSequence()), batchSize,
+                syncInterval);
+        library.attachLog(log);
+        return log;
+    }
+
+    // Return the sequence of the last record appended.
+    public synchronized long sequence() {
+        return sequence;
+    }
+
+    // Return the sequence of the last record known to be on the disk.
+    public synchronized long durableSequence() {
+        return durableSequence;
+    }
+
+    // Throw the failure that stopped the log, if there was one. Call it before
+    // applying a mutation that is going to be appended.
+    public synchronized void checkHealthy() {
+        if (failure != null) {
+            throw new UncheckedIOException(failed());
+        }
+    }
+
+    // Append a mutation and return its sequence number. The record only goes into
+    // the buffer; a full batch wakes the flusher, and a full buffer waits for it.
+    // A failure is not thrown here, where the mutation has already been applied:
+    // it stops the log, and the next checkHealthy, sync or awaitDurable reports it.
+    public synchronized long append(byte type, Book book, int patron, long time) {
+        long next = sequence + 1;
+        encode(next, type, book, patron, time);
+
+        boolean interrupted = false;
+        while (failure == null && buffer.remaining() < record.remaining()) {
+            if (buffer.position() == 0) {
+                // A record larger than the buffer gets a buffer of its own size.
+                buffer = ByteBuffer.allocateDirect(record.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+                break;
+            }
+            requestFlush();
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            return sequence;
+        }
+        buffer.put(record);
+        sequence = next;
+
+        if (++pending >= batchSize) {
+            requestFlush();
+        }
+        return next;
+    }
+
+    // Force every appended record to the disk.
+    public void sync() throws IOException {
+        synchronized (flushLock) {
+            ByteBuffer full;
+            long target;
+            synchronized (this) {
+                flushRequested = false;
+                if (failure != null) {
+                    throw failed();
+                }
+                if (durableSequence == sequence) {
+                    return;
+                }
+                full = buffer;
+                buffer = spare;
+                spare = full;
+                target = sequence;
+                pending = 0;
+                notifyAll(); // appends waiting for room
+            }
+
+            try {
+                full.flip();
+                while (full.hasRemaining()) {
+                    channel.write(full);
+                }
+                full.clear();
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    fail(e);
+                }
+                throw e;
+            }
+
+            synchronized (this) {
+                durableSequence = target;
+                notifyAll();
+            }
+        }
+    }
+
+    // Wait until the record with the given sequence is on the disk, or throw the
+    // failure that stopped the log before it got there.
+    public synchronized void awaitDurable(long target) throws IOException, InterruptedException {
+        while (durableSequence < target) {
+            if (failure != null) {
+                throw failed();
+            }
+            requestFlush();
+            wait();
+        }
+    }
+
+    // Empty the log once a snapshot holds everything in it. Records appended
+    // meanwhile are still in the buffer, and are written after the cut.
+    public void truncate() throws IOException {
+        synchronized (flushLock) {
+            sync();
+            channel.truncate(0);
+            channel.position(0);
+        }
+    }
+
+    // Force what is left and close the file. Later appends are refused like
+    // those after a failure, rather than waiting on a flusher that is gone.
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            sync();
+        } finally {
+            synchronized (this) {
+                fail(new ClosedChannelException());
+            }
+            channel.close();
+        }
+    }
+
+    // Have the flusher sync soon, unless it is asked to already or stopped.
+    private void requestFlush() {
+        if (!flushRequested && !flusher.isShutdown()) {
+            flushRequested = true;
+            flusher.execute(this::syncOrFail);
+        }
+    }
+
+    // Sync for the flusher, where there is nobody to throw to. A failure stops
+    // the log instead, and waiters wake up to see it.
+    private void syncOrFail() {
+        try {
+            sync();
+        } catch (IOException stopped) {
+            // sync recorded it.
+        }
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        notifyAll();
+    }
+
+    private IOException failed() {
+        return new IOException("The write-ahead log is stopped", failure);
+    }
+
+    private void encode(long next, byte type, Book book, int patron, long time) {
+        byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+        byte[] author = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+        byte[] isbn = book.getIsbn().getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 8 + 1 + 4 + 12 + title.length + author.length + isbn.length + 4 + 4;
+
+        if (record.capacity() < length + 4) {
+            record = ByteBuffer.allocate(Math.max(length + 4, record.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        record.clear();
+        record.putInt(length);
+        record.putLong(next);
+        record.putLong(time);
+        record.put(type);
+        record.putInt(patron);
+        record.putInt(title.length).put(title);
+        record.putInt(author.length).put(author);
+        record.putInt(isbn.length).put(isbn);
+        record.putInt(book.getEdition());
+
+        checksum.reset();
+        checksum.update(record.array(), 4, record.position() - 4);
+        record.putInt((int) checksum.getValue());
+        record.flip();
+    }
+
+    // Apply the records after the library's log sequence. Returns the file
+    // offset after the last good record and the last sequence read.
+    private static long[] replay(FileChannel channel, LibrarySystem library) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        long lastSequence = 0;
+        ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+
+        while (position + 4 <= size) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(0);
+            if (length < 41 || position + 4 + length > size) {
+                break;
+            }
+
+            ByteBuffer body = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while (body.hasRemaining() && channel.read(body, position + 4 + body.position()) > 0) {
+            }
+            crc.reset();
+            crc.update(body.array(), 0, length - 4);
+            if ((int) crc.getValue() != body.getInt(length - 4)) {
+                break;
+            }
+
+            body.flip();
+            long sequence = body.getLong();
+            long time = body.getLong();
+            byte type = body.get();
+            int patron = body.getInt();
+            Book book = new Book(string(body), string(body), string(body), body.getInt());
+
+            if (sequence > library.logSequence()) {
+                library.replay(type, book, patron, time, sequence);
+            }
+            lastSequence = sequence;
+            position += 4 + length;
+        }
+        return new long[] { position, lastSequence };
+    }
+
+    private static String string(ByteBuffer body) {
+        byte[] bytes = new byte[body.getInt()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,73 @@
+import benchmarks.Catalog;
+
+// Catalog of the benchmarks over a LibrarySystem, see benchmarks.Catalog.
+public class CatalogAdapter implements Catalog {
+    private final LibrarySystem library;
+
+    public CatalogAdapter(int capacity) {
+        this.library = new LibrarySystem(capacity);
+    }
+
+    public Object book(String title, String author, String isbn, int edition) {
+        return new Book(title, author, isbn, edition);
+    }
+
+    public boolean add(Object book) {
+        return library.addABook((Book) book);
+    }
+
+    public boolean remove(Object book) {
+        return library.removeABook((Book) book);
+    }
+
+    public Object searchByTitle(String title) {
+        return library.searchBookByTitle(title);
+    }
+
+    public Object searchByAuthor(String author) {
+        return library.searchBookByAuthor(author);
+    }
+
+    public Object searchByIsbn(String isbn) {
+        return library.searchBookByIsbn(isbn);
+    }
+
+    public boolean borrow(Object book) {
+        return library.BorrowABook((Book) book);
+    }
+
+    public boolean giveBack(Object book) {
+        return library.returnABook((Book) book);
+    }
+
+    public long iterate() {
+        return library.availableBooks().count();
+    }
+
+    public long iteratePages(int pageSize) {
+        long count = 0;
+        long cursor = 0;
+        while (cursor != BookPage.END) {
+            BookPage page = library.availableBooksPage(cursor, pageSize);
+            count += page.getBooks().size();
+            cursor = page.getNextCursor();
+        }
+        return count;
+    }
+
+    public void ensureCapacity(int books) {
+        library.ensureCapacity(books);
+    }
+
+    public void useLookupCache(int entries) {
+        library.useLookupCache(new LookupCache(entries));
+    }
+
+    public int capacity() {
+        return library.libraryStorageCapacity();
+    }
+
+    public int size() {
+        return library.distinctBooks();
+    }
+}
@@ -0,0 +1,45 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Lookups through the front cache. With Zipfian keys most of them are hits;
+// run with -t to see how hits hold up with several threads.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class CachedLookupBenchmark {
+
+    @Param({ "1024", "65536" })
+    public int cacheEntries;
+
+    @Setup(Level.Trial)
+    public void attachCache(CatalogState state) {
+        state.catalog.useLookupCache(cacheEntries);
+    }
+
+    @Benchmark
+    public Object searchBookByTitle(CatalogState state, Position position) {
+        return state.catalog.searchByTitle(state.titles[state.order[position.next()]]);
+    }
+
+    @Benchmark
+    public Object searchBookByIsbn(CatalogState state, Position position) {
+        return state.catalog.searchByIsbn(state.isbns[state.order[position.next()]]);
+    }
+}
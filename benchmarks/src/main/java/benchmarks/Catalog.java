@@ -0,0 +1,50 @@
+package benchmarks;
+
+// The catalog classes live in the unnamed package, which code in a named package
+// cannot refer to, and JMH only accepts benchmarks in a named package. The
+// benchmarks reach the catalog through this interface instead. Its one
+// implementation, CatalogAdapter, sits in the unnamed package and is loaded by
+// name once per trial, so the measured calls are plain interface calls.
+public interface Catalog {
+
+    // Create an empty catalog whose tables start with the given capacity.
+    static Catalog create(int capacity) {
+        try {
+            return (Catalog) Class.forName("CatalogAdapter").getConstructor(int.class).newInstance(capacity);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("CatalogAdapter is missing from the class path", e);
+        }
+    }
+
+    // Make a book to add later, so benchmarks do not measure building it.
+    Object book(String title, String author, String isbn, int edition);
+
+    boolean add(Object book);
+
+    boolean remove(Object book);
+
+    Object searchByTitle(String title);
+
+    Object searchByAuthor(String author);
+
+    Object searchByIsbn(String isbn);
+
+    boolean borrow(Object book);
+
+    boolean giveBack(Object book);
+
+    // Walk every available book, returning how many there were.
+    long iterate();
+
+    // Walk every available book a page at a time, returning how many there were.
+    long iteratePages(int pageSize);
+
+    void ensureCapacity(int books);
+
+    // Put a lookup cache of the given number of entries in front of the searches.
+    void useLookupCache(int entries);
+
+    int capacity();
+
+    int size();
+}
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// A catalog filled with size books, and the order in which to ask for them.
+// With a low load factor the tables start four times larger than the catalog,
+// with a high one just large enough to stay under the resize threshold.
+@State(Scope.Benchmark)
+public class CatalogState {
+    static final int ORDER_LENGTH = 1 << 16;
+    private static final double HIGH_LOAD = 0.74; // the tables rebuild at 0.75
+    private static final int BOOKS_PER_AUTHOR = 10;
+
+    @Param({ "1000", "100000", "1000000", "10000000" })
+    public int size;
+
+    @Param({ "uniform", "zipfian" })
+    public String keys;
+
+    @Param({ "low", "high" })
+    public String loadFactor;
+
+    Catalog catalog;
+    Object[] books;
+    String[] titles;
+    String[] authors;
+    String[] isbns;
+    Object[] extras; // books that are not in the catalog
+    int[] order; // indexes into books, in lookup order
+
+    @Setup(Level.Trial)
+    public void fill() {
+        books = new Object[size];
+        titles = new String[size];
+        authors = new String[size];
+        isbns = new String[size];
+        catalog = Catalog.create(capacity());
+
+        for (int i = 0; i < size; i++) {
+            titles[i] = "title-" + i;
+            authors[i] = "author-" + i / BOOKS_PER_AUTHOR;
+            isbns[i] = isbn(i);
+            books[i] = catalog.book(titles[i], authors[i], isbns[i], 1);
+            catalog.add(books[i]);
+        }
+
+        extras = new Object[ORDER_LENGTH];
+        for (int i = 0; i < extras.length; i++) {
+            extras[i] = catalog.book("extra-" + i, "extra-author", isbn(size + i), 1);
+        }
+        order = KeyDistribution.sample(keys, size, ORDER_LENGTH, 42);
+    }
+
+    // Return the starting table capacity for the load factor parameter.
+    int capacity() {
+        switch (loadFactor) {
+            case "low":
+                return size * 4;
+            case "high":
+                return (int) (size / HIGH_LOAD);
+            default:
+                throw new IllegalArgumentException("Unknown load factor: " + loadFactor);
+        }
+    }
+
+    // Return a valid ISBN-13 for a book number.
+    static String isbn(int number) {
+        String digits = String.format("978%09d", number);
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+}
@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Growing the catalog, measured one whole operation at a time.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class GrowthBenchmark {
+
+    // A fresh catalog for every invocation, empty or holding the books of the catalog state.
+    @State(Scope.Thread)
+    public static class Fresh {
+        Catalog empty;
+        Catalog full;
+
+        @Setup(Level.Invocation)
+        public void create(CatalogState state) {
+            empty = Catalog.create(state.capacity());
+            full = Catalog.create(state.capacity());
+            for (Object book : state.books) {
+                full.add(book);
+            }
+        }
+    }
+
+    // Add every book of the catalog to an empty one.
+    @Benchmark
+    public int fillTheLibrary(CatalogState state, Fresh fresh) {
+        for (Object book : state.books) {
+            fresh.empty.add(book);
+        }
+        return fresh.empty.size();
+    }
+
+    // Grow a full catalog's tables to twice their capacity in one go.
+    @Benchmark
+    public int resizeTheLibrary(CatalogState state, Fresh fresh) {
+        fresh.full.ensureCapacity((int) (fresh.full.capacity() * 1.5));
+        return fresh.full.capacity();
+    }
+}
@@ -0,0 +1,31 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Walks over every available book of the catalog.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class IterationBenchmark {
+    private static final int PAGE_SIZE = 1000;
+
+    @Benchmark
+    public long availableBooks(CatalogState state) {
+        return state.catalog.iterate();
+    }
+
+    @Benchmark
+    public long availableBooksPage(CatalogState state) {
+        return state.catalog.iteratePages(PAGE_SIZE);
+    }
+}
@@ -0,0 +1,77 @@
+package benchmarks;
+
+import java.util.Random;
+
+// Orders in which benchmarks ask for the books of a catalog.
+final class KeyDistribution {
+    private static final double ZIPF_THETA = 0.99;
+
+    private KeyDistribution() {
+    }
+
+    // Return count indexes below n, drawn uniformly or from a Zipfian distribution.
+    static int[] sample(String kind, int n, int count, long seed) {
+        Random random = new Random(seed);
+        int[] indexes = new int[count];
+
+        switch (kind) {
+            case "uniform":
+                for (int i = 0; i < count; i++) {
+                    indexes[i] = random.nextInt(n);
+                }
+                return indexes;
+            case "zipfian":
+                Zipfian zipfian = new Zipfian(n, ZIPF_THETA);
+                for (int i = 0; i < count; i++) {
+                    // Scatter the popular ranks over the catalog so they are not all the oldest books.
+                    indexes[i] = (int) Math.floorMod(mix(zipfian.next(random)), (long) n);
+                }
+                return indexes;
+            default:
+                throw new IllegalArgumentException("Unknown key distribution: " + kind);
+        }
+    }
+
+    private static long mix(long value) {
+        value *= 0x9E3779B97F4A7C15L;
+        return value ^ (value >>> 32);
+    }
+
+    // Zipfian ranks by the method of Gray et al., "Quickly generating billion-record
+    // synthetic databases", as used by YCSB.
+    private static final class Zipfian {
+        private final int n;
+        private final double theta;
+        private final double zetaN;
+        private final double alpha;
+        private final double eta;
+
+        Zipfian(int n, double theta) {
+            this.n = n;
+            this.theta = theta;
+            this.zetaN = zeta(n, theta);
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        }
+
+        int next(Random random) {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < 1 + Math.pow(0.5, theta)) {
+                return Math.min(1, n - 1);
+            }
+            return (int) Math.min(n - 1, n * Math.pow(eta * u - eta + 1, alpha));
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+}
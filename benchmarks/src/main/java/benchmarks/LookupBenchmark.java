@@ -0,0 +1,35 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Lookups of books that are in the catalog.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class LookupBenchmark {
+
+    @Benchmark
+    public Object searchBookByTitle(CatalogState state, Position position) {
+        return state.catalog.searchByTitle(state.titles[state.order[position.next()]]);
+    }
+
+    @Benchmark
+    public Object searchBookByAuthor(CatalogState state, Position position) {
+        return state.catalog.searchByAuthor(state.authors[state.order[position.next()]]);
+    }
+
+    @Benchmark
+    public Object searchBookByIsbn(CatalogState state, Position position) {
+        return state.catalog.searchByIsbn(state.isbns[state.order[position.next()]]);
+    }
+}
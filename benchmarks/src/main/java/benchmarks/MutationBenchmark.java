@@ -0,0 +1,36 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Changes to the catalog. Every change is undone in the same operation, so the
+// catalog keeps its size and load factor for the whole run.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class MutationBenchmark {
+
+    // Add a new book and withdraw it again. The removals leave tombstones, so the
+    // incremental rebuilds they cause are part of the cost.
+    @Benchmark
+    public boolean addABook(CatalogState state, Position position) {
+        Object book = state.extras[position.next()];
+        return state.catalog.add(book) & state.catalog.remove(book);
+    }
+
+    // Lend a book and take it back.
+    @Benchmark
+    public boolean borrowABook(CatalogState state, Position position) {
+        Object book = state.books[state.order[position.next()]];
+        return state.catalog.borrow(book) & state.catalog.giveBack(book);
+    }
+}
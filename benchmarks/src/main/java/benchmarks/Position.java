@@ -0,0 +1,17 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+// Position of a benchmark thread in the lookup order.
+@State(Scope.Thread)
+public class Position {
+    private int next;
+
+    // Return the next index of the lookup order.
+    int next() {
+        int index = next;
+        next = (next + 1) & (CatalogState.ORDER_LENGTH - 1);
+        return index;
+    }
+}
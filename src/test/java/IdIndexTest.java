@@ -0,0 +1,67 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class IdIndexTest {
+    private final String[] keys = new String[20_000];
+    private final IdIndex index = new IdIndex(8, id -> keys[id]);
+
+    private void add(int id, String key) {
+        keys[id] = key;
+        index.add(id, key.hashCode());
+    }
+
+    private boolean remove(int id) {
+        return index.remove(id, keys[id].hashCode());
+    }
+
+    @Test
+    void resolvesHashCollisionsByKey() {
+        // "Aa" and "BB" have the same hash code.
+        add(0, "Aa");
+        add(1, "BB");
+        add(2, "Aa");
+
+        assertEquals(1, index.find("BB"));
+        List<Integer> found = new ArrayList<>();
+        index.forEach("Aa", found::add);
+        assertEquals(2, found.size());
+        assertTrue(found.contains(0) && found.contains(2));
+        assertEquals(-1, index.find("Ab"));
+    }
+
+    @Test
+    void findsKeysWhileMigratingToALargerTable() {
+        for (int id = 0; id < keys.length; id++) {
+            add(id, "key " + id);
+            assertEquals(id / 3, index.find("key " + id / 3));
+        }
+        assertTrue(index.resizes() > 0);
+        assertEquals(keys.length, index.size());
+    }
+
+    @Test
+    void rebuildsWhenTombstonesPileUp() {
+        for (int id = 0; id < 1000; id++) {
+            add(id, "key " + id);
+        }
+        index.finishRebuild();
+        int capacity = index.capacity();
+
+        for (int id = 0; id < 1000; id += 2) {
+            assertTrue(remove(id));
+        }
+        assertFalse(remove(0));
+        index.finishRebuild();
+        assertTrue(index.compactions() > 0);
+        assertEquals(capacity, index.capacity());
+        assertTrue(index.tombstoneRatio() < 0.2);
+        for (int id = 0; id < 1000; id++) {
+            assertEquals(id % 2 == 0 ? -1 : id, index.find("key " + id));
+        }
+    }
+}
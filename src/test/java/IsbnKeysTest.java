@@ -0,0 +1,37 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class IsbnKeysTest {
+
+    @Test
+    void readsIsbn13Digits() {
+        long key = IsbnKeys.key("9780306406157");
+        assertEquals(9780306406157L, key);
+        assertTrue(IsbnKeys.isExact(key));
+        assertEquals(key, IsbnKeys.key("978-0-306-40615-7"));
+        assertEquals(key, IsbnKeys.key("978 0 306 40615 7"));
+    }
+
+    @Test
+    void turnsIsbn10IntoItsIsbn13() {
+        assertEquals(9780306406157L, IsbnKeys.key("0306406152"));
+        assertEquals(9780306406157L, IsbnKeys.key("0-306-40615-2"));
+        // An X check digit stands for 10.
+        assertEquals(IsbnKeys.key("9780804429573"), IsbnKeys.key("080442957X"));
+        assertEquals(IsbnKeys.key("080442957X"), IsbnKeys.key("080442957x"));
+    }
+
+    @Test
+    void hashesWrongCheckDigitsAndOtherStrings() {
+        for (String isbn : new String[] {"9780306406158", "0306406153", "12345", "not an isbn", "97803064061570", ""}) {
+            long key = IsbnKeys.key(isbn);
+            assertFalse(IsbnKeys.isExact(key), isbn);
+            assertEquals(key, IsbnKeys.key(isbn));
+        }
+        assertNotEquals(IsbnKeys.key("9780306406158"), IsbnKeys.key("9780306406157"));
+    }
+}
@@ -0,0 +1,116 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class LoanLedgerTest {
+
+    private static Book book(int n) {
+        return new Book("Title " + n, "Author", String.format("979%010d", n), 1);
+    }
+
+    @Test
+    void findsLoansByBookPatronAndDueDate() {
+        LoanLedger ledger = new LoanLedger(100);
+        int[] slots = new int[100];
+        for (int n = 0; n < 100; n++) {
+            slots[n] = ledger.checkout(book(n), n % 4, n, 1000 - n * 10);
+        }
+        assertTrue(ledger.isFull());
+        assertEquals(-1, ledger.checkout(book(100), 1, 0, 0));
+        assertEquals(slots[42], ledger.find(book(42)));
+        assertEquals(10, ledger.nextDue());
+
+        List<Integer> due = new ArrayList<>();
+        ledger.forEachDueBefore(100, due::add);
+        assertEquals(9, due.size()); // due at 10 through 90
+
+        assertEquals(book(99), ledger.book(slots[99]));
+        assertEquals(book(99), ledger.giveBack(slots[99]));
+        assertEquals(-1, ledger.find(book(99)));
+        assertEquals(20, ledger.nextDue());
+
+        List<Integer> ofPatron = new ArrayList<>();
+        ledger.forEachOfPatron(3, ofPatron::add);
+        assertEquals(24, ofPatron.size()); // 3, 7, ..., 95; 99 was returned
+        for (int slot : ofPatron) {
+            assertEquals(3, ledger.patron(slot));
+        }
+    }
+
+    @Test
+    void takesEveryLoanForARemindersOnce() {
+        LoanLedger ledger = new LoanLedger(10);
+        for (int n = 0; n < 10; n++) {
+            ledger.checkout(book(n), 1, 0, n * 100);
+        }
+        List<Integer> taken = new ArrayList<>();
+        ledger.takeDueBefore(450, taken::add);
+        assertEquals(5, taken.size());
+        ledger.takeDueBefore(450, taken::add);
+        assertEquals(5, taken.size());
+        ledger.takeDueBefore(1000, taken::add);
+        assertEquals(10, taken.size());
+
+        // A loan checked out due before the reminders taken so far counts as reminded.
+        ledger.giveBack(taken.get(0));
+        ledger.checkout(book(10), 1, 0, 50);
+        ledger.takeDueBefore(2000, taken::add);
+        assertEquals(10, taken.size());
+    }
+
+    @Test
+    void churnAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        LoanLedger ledger = new LoanLedger(4096);
+        Book[] books = new Book[4096];
+        for (int n = 0; n < books.length; n++) {
+            books[n] = book(n);
+        }
+        int[] slots = new int[books.length];
+        long allocated = 0;
+
+        for (int round = 0; round < 3; round++) {
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int n = 0; n < 200_000; n++) {
+                int i = n % books.length;
+                if (n >= books.length) {
+                    ledger.giveBack(slots[i]);
+                }
+                slots[i] = ledger.checkout(books[i], 1 + i % 500, n, n + 100);
+            }
+            allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            for (int i = 0; i < books.length; i++) {
+                ledger.giveBack(slots[i]);
+            }
+        }
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    void remindersKeepRunningAfterAFailedRun() throws InterruptedException {
+        LibrarySystem library = new LibrarySystem();
+        library.addABook(book(0));
+        library.BorrowABook(book(0), 1);
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch reminded = new CountDownLatch(1);
+
+        LoanReminders.Source source = time -> {
+            if (runs.incrementAndGet() == 1) {
+                throw new AssertionError("A failing run");
+            }
+            return library.takeLoansDueBefore(Long.MAX_VALUE);
+        };
+        try (LoanReminders reminders = new LoanReminders(source, loans -> reminded.countDown(), 1,
+                TimeUnit.MILLISECONDS)) {
+            assertTrue(reminded.await(10, TimeUnit.SECONDS));
+            assertTrue(reminders.lastFailure() instanceof AssertionError);
+        }
+    }
+}
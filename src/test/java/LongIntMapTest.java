@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class LongIntMapTest {
+
+    @Test
+    void keepsEveryIdOfAKey() {
+        LongIntMap map = new LongIntMap(16);
+        map.add(7, 1);
+        map.add(7, 2);
+        map.add(8, 3);
+
+        assertEquals(2, map.find(7, id -> id == 2));
+        assertEquals(1, map.find(7, id -> id == 1));
+        assertEquals(3, map.find(8));
+        assertEquals(-1, map.find(9));
+        assertTrue(map.remove(7, 1));
+        assertFalse(map.remove(7, 1));
+        assertEquals(2, map.find(7));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void findsEntriesWhileGrowingIncrementally() {
+        LongIntMap map = new LongIntMap(8);
+        boolean sawRebuild = false;
+
+        for (int id = 0; id < 10_000; id++) {
+            map.add(id * 31L, id);
+            sawRebuild |= map.isRebuilding();
+            assertEquals(id / 2, map.find(id / 2 * 31L));
+        }
+        map.finishRebuild();
+        assertTrue(sawRebuild);
+        assertTrue(map.resizes() > 0);
+        for (int id = 0; id < 10_000; id++) {
+            assertEquals(id, map.find(id * 31L));
+        }
+    }
+
+    @Test
+    void compactsTombstonesInPlace() {
+        LongIntMap map = new LongIntMap(256, true);
+        int capacity = map.capacity();
+
+        for (int round = 0; round < 1000; round++) {
+            for (int id = 0; id < 100; id++) {
+                map.add(round * 1000L + id, id);
+            }
+            for (int id = 0; id < 100; id++) {
+                assertTrue(map.remove(round * 1000L + id, id));
+            }
+        }
+        assertEquals(0, map.size());
+        assertEquals(capacity, map.capacity());
+        assertEquals(0, map.resizes());
+        assertTrue(map.compactions() > 0);
+        assertFalse(map.isRebuilding());
+    }
+
+    @Test
+    void matchesAHashMapUnderChurn() {
+        for (boolean inPlace : new boolean[] {false, true}) {
+            Random random = new Random(1);
+            LongIntMap map = new LongIntMap(200, inPlace);
+            Map<Long, Set<Integer>> expected = new HashMap<>();
+            List<long[]> live = new ArrayList<>();
+
+            for (int op = 0; op < 200_000; op++) {
+                if (live.size() < 90 && (live.isEmpty() || random.nextBoolean())) {
+                    long key = random.nextInt(60);
+                    int id = random.nextInt(1_000_000);
+                    if (expected.computeIfAbsent(key, k -> new HashSet<>()).add(id)) {
+                        map.add(key, id);
+                        live.add(new long[] {key, id});
+                    }
+                } else {
+                    long[] entry = live.remove(random.nextInt(live.size()));
+                    assertTrue(map.remove(entry[0], (int) entry[1]));
+                    expected.get(entry[0]).remove((int) entry[1]);
+                }
+                if (op % 997 == 0) {
+                    for (long[] entry : live) {
+                        assertEquals(entry[1], map.find(entry[0], id -> id == entry[1]));
+                    }
+                    assertEquals(live.size(), map.size());
+                }
+            }
+        }
+    }
+}
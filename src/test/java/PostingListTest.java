@@ -0,0 +1,76 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+class PostingListTest {
+
+    @Test
+    void staysSortedAcrossTailAndBlocks() {
+        PostingList list = new PostingList();
+        assertEquals(-1, list.first());
+
+        for (int id = 10_000; id > 0; id -= 3) {
+            list.add(id);
+        }
+        list.add(5);
+        assertEquals(1, list.first());
+        assertTrue(list.contains(5));
+        assertFalse(list.contains(6));
+
+        int[] ids = list.toArray();
+        for (int i = 1; i < ids.length; i++) {
+            assertTrue(ids[i - 1] < ids[i]);
+        }
+        assertEquals(ids.length, list.size());
+    }
+
+    @Test
+    void matchesATreeSetUnderChurn() {
+        Random random = new Random(3);
+        PostingList list = new PostingList();
+        TreeSet<Integer> expected = new TreeSet<>();
+
+        for (int op = 0; op < 100_000; op++) {
+            int id = random.nextInt(5000);
+            if (random.nextInt(3) > 0) {
+                list.add(id);
+                expected.add(id);
+            } else {
+                assertEquals(expected.remove(id), list.remove(id));
+            }
+            if (op % 1009 == 0) {
+                assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), list.toArray());
+                assertEquals(expected.isEmpty() ? -1 : expected.first(), list.first());
+            }
+        }
+        for (int id : expected) {
+            assertTrue(list.remove(id));
+        }
+        assertTrue(list.isEmpty());
+        assertEquals(-1, list.first());
+    }
+
+    @Test
+    void indexDropsKeysWithNothingLeft() {
+        PostingIndex index = new PostingIndex(4);
+        for (int id = 0; id < 300; id++) {
+            index.add("author " + id % 3, id);
+        }
+        assertEquals(3, index.keys());
+        assertEquals(100, index.get("author 1").size());
+
+        for (int id = 1; id < 300; id += 3) {
+            assertTrue(index.remove("author 1", id));
+        }
+        assertFalse(index.remove("author 1", 1));
+        assertNull(index.get("author 1"));
+        assertEquals(2, index.keys());
+        assertEquals(0, index.get("author 0").first());
+    }
+}
@@ -0,0 +1,99 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SnapshotTest {
+    @TempDir
+    Path directory;
+
+    private static Book book(int n) {
+        return new Book("Title " + n, "Author " + n % 10, String.format("979%010d", n), 1 + n % 3);
+    }
+
+    private static void fill(LibrarySystem library) {
+        for (int n = 0; n < 5000; n++) {
+            library.addABook(book(n));
+            if (n % 4 == 0) {
+                library.addABook(book(n));
+            }
+        }
+        for (int n = 0; n < 5000; n += 7) {
+            library.removeABook(book(n));
+        }
+        for (int n = 1; n < 5000; n += 5) {
+            // The books withdrawn above with their only copy are gone.
+            assertEquals(n % 7 != 0 || n % 4 == 0, library.BorrowABook(book(n), 1 + n % 20));
+        }
+    }
+
+    private static void assertSameCatalog(LibrarySystem expected, LibrarySystem actual) {
+        assertEquals(expected.booksInTheLibrary(), actual.booksInTheLibrary());
+        assertEquals(expected.booksBorrowed(), actual.booksBorrowed());
+        assertEquals(expected.bookCopies(), actual.bookCopies());
+        assertEquals(expected.distinctBooks(), actual.distinctBooks());
+        assertEquals(expected.loans(), actual.loans());
+        for (int n = 0; n < 5000; n++) {
+            Book book = book(n);
+            assertEquals(expected.availableCopies(book), actual.availableCopies(book));
+            assertEquals(expected.totalCopies(book), actual.totalCopies(book));
+            assertEquals(expected.searchBookByIsbn(book.getIsbn()), actual.searchBookByIsbn(book.getIsbn()));
+            assertEquals(expected.searchBookByTitle(book.getTitle()), actual.searchBookByTitle(book.getTitle()));
+        }
+        assertEquals(expected.countBooksByAuthor("Author 3"), actual.countBooksByAuthor("Author 3"));
+        assertEquals(expected.booksBorrowedBy(7), actual.booksBorrowedBy(7));
+    }
+
+    @Test
+    void reopensTheSameCatalog() throws IOException {
+        LibrarySystem library = new LibrarySystem();
+        fill(library);
+        Path path = directory.resolve("library.snapshot");
+        library.saveSnapshot(path);
+
+        LibrarySystem opened = LibrarySystem.openSnapshot(path);
+        assertSameCatalog(library, opened);
+
+        // The reopened catalog takes changes and can be saved over its own file.
+        assertTrue(opened.returnABook(book(1)));
+        assertTrue(opened.removeABook(book(2)));
+        opened.addABook(book(6000));
+        opened.saveSnapshot(path);
+        LibrarySystem again = LibrarySystem.openSnapshot(path);
+        assertSameCatalog(opened, again);
+        assertNotNull(again.searchBookByIsbn(book(6000).getIsbn()));
+    }
+
+    @Test
+    void keepsTheArenaAcrossSnapshots() throws IOException {
+        for (boolean offHeap : new boolean[] {false, true}) {
+            LibrarySystem library = new LibrarySystem(41, 4096, new BookArena(offHeap));
+            fill(library);
+            Path path = directory.resolve("arena-" + offHeap + ".snapshot");
+            library.saveSnapshot(path);
+
+            LibrarySystem opened = LibrarySystem.openSnapshot(path);
+            assertSameCatalog(library, opened);
+            // Books come back as flyweights over the arena, not as plain Book objects.
+            assertNotEquals(Book.class, opened.searchBookByIsbn(book(3).getIsbn()).getClass());
+
+            assertTrue(opened.removeABook(book(3)));
+            assertNull(opened.searchBookByIsbn(book(3).getIsbn()));
+        }
+    }
+
+    @Test
+    void refusesOtherFiles() throws IOException {
+        Path path = directory.resolve("other");
+        Files.write(path, new byte[256]);
+        assertThrows(IOException.class, () -> LibrarySystem.openSnapshot(path));
+    }
+}
@@ -0,0 +1,120 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteAheadLogTest {
+    @TempDir
+    Path directory;
+
+    private static Book book(int n) {
+        return new Book("Title " + n, "Author " + n % 10, String.format("979%010d", n), 1);
+    }
+
+    @Test
+    void replaysEveryMutationIntoAFreshLibrary() throws Exception {
+        Path path = directory.resolve("library.wal");
+        LibrarySystem library = new LibrarySystem();
+        long last;
+        try (WriteAheadLog log = WriteAheadLog.open(path, library, 64, 0)) {
+            for (int n = 0; n < 1000; n++) {
+                library.addABook(book(n));
+            }
+            for (int n = 0; n < 1000; n += 3) {
+                library.BorrowABook(book(n), 5);
+            }
+            for (int n = 0; n < 1000; n += 6) {
+                library.returnABook(book(n));
+            }
+            library.removeABook(book(1));
+            last = library.logSequence();
+            log.awaitDurable(last);
+            assertEquals(last, log.durableSequence());
+        }
+
+        LibrarySystem replayed = new LibrarySystem();
+        try (WriteAheadLog log = WriteAheadLog.open(path, replayed, 64, 0)) {
+            assertEquals(last, replayed.logSequence());
+            assertEquals(last, log.sequence());
+        }
+        assertEquals(library.booksInTheLibrary(), replayed.booksInTheLibrary());
+        assertEquals(library.booksBorrowed(), replayed.booksBorrowed());
+        assertEquals(library.distinctBooks(), replayed.distinctBooks());
+        assertEquals(library.booksBorrowedBy(5), replayed.booksBorrowedBy(5));
+    }
+
+    @Test
+    void replaysOnlyWhatTheSnapshotMissed() throws Exception {
+        Path path = directory.resolve("library.wal");
+        Path snapshot = directory.resolve("library.snapshot");
+        LibrarySystem library = new LibrarySystem();
+        try (WriteAheadLog log = WriteAheadLog.open(path, library, 16, 0)) {
+            for (int n = 0; n < 100; n++) {
+                library.addABook(book(n));
+            }
+            library.saveSnapshot(snapshot);
+            for (int n = 100; n < 150; n++) {
+                library.addABook(book(n));
+            }
+            log.sync();
+        }
+
+        LibrarySystem opened = LibrarySystem.openSnapshot(snapshot);
+        WriteAheadLog.open(path, opened, 16, 0).close();
+        assertEquals(150, opened.booksInTheLibrary());
+        assertEquals(library.logSequence(), opened.logSequence());
+    }
+
+    @Test
+    void dropsATornTail() throws Exception {
+        Path path = directory.resolve("library.wal");
+        LibrarySystem library = new LibrarySystem();
+        try (WriteAheadLog log = WriteAheadLog.open(path, library, 16, 0)) {
+            for (int n = 0; n < 10; n++) {
+                library.addABook(book(n));
+            }
+            log.sync();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        LibrarySystem replayed = new LibrarySystem();
+        WriteAheadLog.open(path, replayed, 16, 0).close();
+        assertEquals(9, replayed.booksInTheLibrary());
+        assertEquals(9, replayed.logSequence());
+    }
+
+    @Test
+    void failsLoudlyWhenTheLedgerHasNoRoomForALoggedLoan() throws Exception {
+        Path path = directory.resolve("library.wal");
+        LibrarySystem library = new LibrarySystem(41, 8);
+        try (WriteAheadLog log = WriteAheadLog.open(path, library, 16, 0)) {
+            for (int n = 0; n < 8; n++) {
+                library.addABook(book(n));
+                assertTrue(library.BorrowABook(book(n)));
+            }
+            log.sync();
+        }
+
+        LibrarySystem smaller = new LibrarySystem(41, 4);
+        assertThrows(IllegalStateException.class, () -> WriteAheadLog.open(path, smaller, 16, 0));
+    }
+
+    @Test
+    void refusesMutationsOnceClosed() throws IOException {
+        LibrarySystem library = new LibrarySystem();
+        WriteAheadLog log = WriteAheadLog.open(directory.resolve("library.wal"), library, 16, 0);
+        library.addABook(book(0));
+        log.close();
+
+        assertThrows(RuntimeException.class, () -> library.addABook(book(1)));
+        assertEquals(1, library.booksInTheLibrary());
+    }
+}